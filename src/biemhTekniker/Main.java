@@ -1,14 +1,23 @@
 package biemhTekniker;
 
+import biemhTekniker.config.RobotConfig;
+import biemhTekniker.logger.FlightRecorder;
 import biemhTekniker.logger.LogCollector;
+import biemhTekniker.logger.LogJournal;
 import biemhTekniker.logger.LogManager;
 import biemhTekniker.logger.LogPublisher;
+import biemhTekniker.logger.LogServer;
+import biemhTekniker.logger.LogStore;
+import biemhTekniker.logger.LogThrottle;
 import biemhTekniker.logger.Logger;
+import biemhTekniker.vision.PoseSnapshot;
 import biemhTekniker.vision.VisionDataBridge;
-import com.kuka.common.ThreadUtil;
+import biemhTekniker.vision.VisionLinkStatus;
 import com.kuka.roboticsAPI.applicationModel.RoboticsAPIApplication;
 import com.kuka.roboticsAPI.deviceModel.LBR;
 import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
 
 @SuppressWarnings("unused")
 public class Main extends RoboticsAPIApplication
@@ -16,7 +25,11 @@ public class Main extends RoboticsAPIApplication
     @Inject
     private LBR iiwa;
 
+    private LogCollector _logCollector;
     private LogPublisher _logPublisher;
+    private LogJournal _logJournal;
+    private LogServer _logServer;
+    private boolean _visionLinkDown = false;
     private static final Logger log = Logger.getLogger(Main.class);
 
     @Override
@@ -34,33 +47,75 @@ public class Main extends RoboticsAPIApplication
 
         while (true)
         {
-            // Check if the Background Task has put new data in the bridge
-            if (VisionDataBridge.get().hasNewData()) {
-                displayPartData();
+            checkVisionLink();
+            // Wakes up as soon as the Background Task publishes a pose; consumes it
+            PoseSnapshot pose;
+            try
+            {
+                pose = VisionDataBridge.get().awaitNext(1000);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
             }
+            if (pose != null) {
+                displayPartData(pose);
+            }
+        }
+    }
 
-            ThreadUtil.milliSleep(100);
+    // Without a link no pose will arrive; say so once per outage instead of waiting silently
+    private void checkVisionLink()
+    {
+        VisionLinkStatus link = VisionDataBridge.get().getLinkStatus();
+        boolean down = !link.isUp();
+        if (down && !_visionLinkDown)
+        {
+            log.warn("Vision link down, no parts until it reconnects (%d failed connects).",
+                    link.getFailedConnects());
+        } else if (!down && _visionLinkDown)
+        {
+            log.info("Vision link %s again, waiting for parts.", link.getState());
         }
+        _visionLinkDown = down;
     }
 
-    private void displayPartData() {
+    private void displayPartData(PoseSnapshot pose) {
         VisionDataBridge bridge = VisionDataBridge.get();
 
         // Log the raw data from the bridge
         log.info(">>> NEW PART DETECTED <<<");
-        log.info(String.format("Position (m): X=%.4f, Y=%.4f, Z=%.4f",
-                bridge.getX(), bridge.getY(), bridge.getZ()));
-        log.info(String.format("Rotation (rad): Rx=%.4f, Ry=%.4f, Rz=%.4f",
-                bridge.getRx(), bridge.getRy(), bridge.getRz()));
+        log.info("Position (m): X=%.4f, Y=%.4f, Z=%.4f",
+                pose.getX(), pose.getY(), pose.getZ());
+        log.info("Rotation (rad): Rx=%.4f, Ry=%.4f, Rz=%.4f",
+                pose.getRx(), pose.getRy(), pose.getRz());
+        log.debug("Pose %d handed over after %.3f ms.", pose.getSequence(),
+                (System.nanoTime() - pose.getPublishNanos()) / 1e6);
 
-        // CRITICAL: Mark data as 'consumed' so we don't log the same part 100 times a second
-        bridge.consume();
+        // No pick motion yet, so the arm never blocks the camera. Once it does, signal
+        // this when the arm has left the field of view; the vision task may then
+        // prefetch the next part while the robot places this one. A failed or collided
+        // pick must call bridge.signalBinDisturbed() instead, so stale parts are dropped.
+        bridge.signalCameraClear();
     }
 
     @Override
     public void dispose()
     {
+        FlightRecorder.dump("Main disposed", null);
+        LogManager.flush(500);
+        if (_logCollector != null) LogManager.unregister(_logCollector);
         if (_logPublisher != null) _logPublisher.stop();
+        if (_logServer != null)
+        {
+            LogManager.unregister(_logServer);
+            _logServer.stop();
+        }
+        if (_logJournal != null)
+        {
+            LogManager.unregister(_logJournal);
+            _logJournal.close();
+        }
         super.dispose();
     }
 
@@ -68,12 +123,25 @@ public class Main extends RoboticsAPIApplication
     {
         try
         {
-            LogCollector _logCollector = new LogCollector();
+            RobotConfig config = RobotConfig.get();
+            _logCollector = new LogCollector(
+                    config.getInt("logging.collector.capacity", LogCollector.DEFAULT_CAPACITY),
+                    overflowPolicy(config.getString("logging.collector.overflowPolicy", "DROP_DEBUG_FIRST")));
             LogManager.register(_logCollector);
 
             _logPublisher = new LogPublisher(_logCollector);
             _logPublisher.start();
 
+            LogManager.getThrottle().setDefaultRule(
+                    config.getInt("logging.throttle.maxPerSecond", LogThrottle.DEFAULT_MAX_PER_SECOND),
+                    config.getBoolean("logging.throttle.collapseRepeats", true));
+            FlightRecorder.setDumpDirectory(new File(
+                    config.getString("logging.flightRecorder.dir", "logs/flight")));
+            LogStore.install(config.getInt("logging.store.capacity", LogStore.DEFAULT_CAPACITY),
+                    config.getInt("logging.store.arenaChars", LogStore.DEFAULT_ARENA_CHARS));
+            initializeJournal();
+            initializeLogServer();
+
             log.info("Logging initialized");
 
         } catch (Exception e)
@@ -81,4 +149,52 @@ public class Main extends RoboticsAPIApplication
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+
+    private static LogCollector.OverflowPolicy overflowPolicy(String name)
+    {
+        try
+        {
+            return LogCollector.OverflowPolicy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e)
+        {
+            log.warn("Unknown logging.collector.overflowPolicy %s, using DROP_DEBUG_FIRST.", name);
+            return LogCollector.OverflowPolicy.DROP_DEBUG_FIRST;
+        }
+    }
+
+    private void initializeJournal()
+    {
+        RobotConfig config = RobotConfig.get();
+        if (!config.getBoolean("logging.journal.enabled", true)) return;
+
+        File dir = new File(config.getString("logging.journal.dir", "logs/journal"));
+        try
+        {
+            _logJournal = new LogJournal(dir,
+                    config.getInt("logging.journal.segmentSize", 4 * 1024 * 1024),
+                    config.getInt("logging.journal.maxSegments", 8));
+            LogManager.register(_logJournal);
+            log.info("Log journal writing to %s", dir.getAbsolutePath());
+        } catch (IOException e)
+        {
+            // The console log still works; the journal is a nice-to-have
+            log.warn("Log journal disabled: %s", e.getMessage());
+        }
+    }
+
+    private void initializeLogServer()
+    {
+        RobotConfig config = RobotConfig.get();
+        _logServer = new LogServer(config.getInt("logging.port", 30000),
+                config.getInt("logging.server.maxPendingBytes", LogServer.DEFAULT_MAX_PENDING_BYTES));
+        try
+        {
+            _logServer.start();
+            LogManager.register(_logServer);
+        } catch (IOException e)
+        {
+            log.warn("Log server disabled: %s", e.getMessage());
+            _logServer = null;
+        }
+    }
+}
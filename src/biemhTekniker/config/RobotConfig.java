@@ -0,0 +1,99 @@
+package biemhTekniker.config;
+
+import biemhTekniker.logger.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Read-only view of {@code configs/robot.properties}.
+ * The location can be overridden with the {@code biemh.config} system property.
+ * Missing keys or an unreadable file fall back to the defaults given by the caller.
+ */
+public final class RobotConfig {
+
+    private static final Logger log = Logger.getLogger(RobotConfig.class);
+    private static final String PATH_PROPERTY = "biemh.config";
+    private static final String DEFAULT_PATH = "configs/robot.properties";
+
+    private static volatile RobotConfig instance;
+
+    private final Properties _properties;
+
+    private RobotConfig(Properties properties) {
+        this._properties = properties;
+    }
+
+    public static RobotConfig get() {
+        RobotConfig config = instance;
+        if (config == null) {
+            synchronized (RobotConfig.class) {
+                config = instance;
+                if (config == null) {
+                    config = load(new File(System.getProperty(PATH_PROPERTY, DEFAULT_PATH)));
+                    instance = config;
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Wraps properties that did not come from the config file, e.g. in tools.
+     */
+    public static RobotConfig of(Properties properties) {
+        return new RobotConfig(properties);
+    }
+
+    public static RobotConfig load(File file) {
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+            log.info("Loaded configuration from %s", file.getAbsolutePath());
+        } catch (IOException e) {
+            log.warn("Could not read %s, using defaults: %s", file.getAbsolutePath(), e.getMessage());
+        } finally {
+            if (in != null) {
+                try { in.close(); } catch (IOException ignored) {}
+            }
+        }
+        return new RobotConfig(properties);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = _properties.getProperty(key);
+        return (value != null) ? value.trim() : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = _properties.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid integer for %s: '%s'", key, value);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = _properties.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid number for %s: '%s'", key, value);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = _properties.getProperty(key);
+        return (value != null) ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+}
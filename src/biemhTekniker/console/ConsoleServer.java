@@ -1,14 +1,33 @@
 package biemhTekniker.console;
 
 
+import biemhTekniker.logger.FlightRecorder;
+import biemhTekniker.logger.LogLevel;
+import biemhTekniker.logger.LogEntry;
 import biemhTekniker.logger.LogManager;
+import biemhTekniker.logger.LogStore;
+import biemhTekniker.logger.LogThrottle;
 import biemhTekniker.logger.Logger;
+import biemhTekniker.logger.LoggerRegistry;
+import biemhTekniker.vision.CommandStats;
+import biemhTekniker.vision.ReferenceManager;
+import biemhTekniker.vision.SpanRecorder;
+import biemhTekniker.vision.VisionDataBridge;
+import biemhTekniker.vision.VisionLinkStatus;
 import com.kuka.roboticsAPI.applicationModel.tasks.CycleBehavior;
 import com.kuka.roboticsAPI.applicationModel.tasks.RoboticsAPICyclicBackgroundTask;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -18,8 +37,11 @@ import java.util.concurrent.TimeUnit;
 public class ConsoleServer extends RoboticsAPICyclicBackgroundTask
 {
     private static final Logger log = Logger.getLogger(ConsoleServer.class);
+    private static final String PROMPT = "> ";
+    private static final String NEWLINE = "\r\n";
     private ServerSocket serverSocket;
     private final int PORT = 30001;
+    private final int SESSION_TIMEOUT_MS = 60000;
     @Override
     public void initialize()
     {
@@ -39,14 +61,247 @@ public class ConsoleServer extends RoboticsAPICyclicBackgroundTask
     @Override
     public void runCyclic()
     {
+        Socket consoleClient = null;
         try
         {
-            Socket ConsoleClient = serverSocket.accept();
+            consoleClient = serverSocket.accept();
+            handleSession(consoleClient);
+        }
+        catch (SocketTimeoutException ignored)
+        {
+            // No client waiting this cycle
         }
         catch (IOException e)
         {
-            e.printStackTrace();
+            log.warn("Console session ended: %s", e.getMessage());
+        }
+        finally
+        {
+            if (consoleClient != null)
+            {
+                try { consoleClient.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private void handleSession(Socket client) throws IOException
+    {
+        client.setSoTimeout(SESSION_TIMEOUT_MS);
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "US-ASCII"));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), "US-ASCII"), true);
+        log.info("Console client connected: %s", client.getRemoteSocketAddress());
+
+        out.print("BiemhTek console, type 'help' for commands." + NEWLINE + PROMPT);
+        out.flush();
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+            line = line.trim();
+            if (line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit")) break;
+            if (!line.isEmpty())
+            {
+                out.print(handleCommand(line.split("\\s+")) + NEWLINE);
+            }
+            out.print(PROMPT);
+            out.flush();
+        }
+    }
+
+    private String handleCommand(String[] args)
+    {
+        switch (args[0].toLowerCase())
+        {
+            case "help":
+                return "level                      list log levels" + NEWLINE
+                     + "level <source> <LEVEL>     set the level of one source" + NEWLINE
+                     + "level <source> default     follow the default level again" + NEWLINE
+                     + "level * <LEVEL>            set the default level" + NEWLINE
+                     + "throttle <source|*> <LEVEL|all> <perSecond> <on|off>" + NEWLINE
+                     + "                           cap a source, 0 = no cap, on/off = collapse repeats" + NEWLINE
+                     + "throttle <source> default  drop the rules of a source" + NEWLINE
+                     + "logs [LEVEL] [source|*] [minutes] [max]" + NEWLINE
+                     + "                           query recent entries, e.g. logs WARN SmartPickingProtocol 10" + NEWLINE
+                     + "dump                       write the flight recorder to a file" + NEWLINE
+                     + "reference [name]           show the vision reference, or change over to another" + NEWLINE
+                     + "link                       state of the vision link" + NEWLINE
+                     + "bin                        discard queued parts after a refill or disturbed bin" + NEWLINE
+                     + "stats                      vision command latency, since startup and last minute" + NEWLINE
+                     + "trace                      write the pick-cycle timeline (Chrome trace and CSV)" + NEWLINE
+                     + "quit                       close the session";
+            case "level":
+                return handleLevel(args);
+            case "throttle":
+                return handleThrottle(args);
+            case "logs":
+                return handleLogs(args);
+            case "reference":
+                return handleReference(args);
+            case "link":
+                return describeLink(VisionDataBridge.get().getLinkStatus());
+            case "bin":
+                VisionDataBridge.get().signalBinDisturbed();
+                log.info("Bin reported disturbed from the console, queued parts discarded");
+                return "Queued parts discarded";
+            case "stats":
+                return CommandStats.get().describe(NEWLINE);
+            case "trace":
+                return handleTrace();
+            case "dump":
+                File file = FlightRecorder.dump("Console request", null);
+                return (file != null) ? "Dumped to " + file.getAbsolutePath() : "Dump failed";
+            default:
+                return "Unknown command '" + args[0] + "', type 'help'";
+        }
+    }
+
+    private String handleTrace()
+    {
+        SpanRecorder spans = SpanRecorder.getInstance();
+        if (spans == null) return "Span recording is off (vision.spans.enabled)";
+        try
+        {
+            return "Trace written to " + spans.export().getAbsolutePath();
+        }
+        catch (IOException e)
+        {
+            return "Trace failed: " + e.getMessage();
+        }
+    }
+
+    private String handleLevel(String[] args)
+    {
+        if (args.length == 1)
+        {
+            StringBuilder sb = new StringBuilder("default: " + LoggerRegistry.getDefaultLevel());
+            for (Map.Entry<String, LogLevel> e : LoggerRegistry.getLevels().entrySet())
+            {
+                sb.append(NEWLINE).append(e.getKey()).append(": ").append(e.getValue());
+            }
+            return sb.toString();
+        }
+        if (args.length != 3)
+        {
+            return "Usage: level <source|*> <DEBUG|INFO|WARN|ERROR|default>";
+        }
+        String source = args[1];
+        // A mistyped source would otherwise be accepted silently and never match a logger
+        String unknown = (!source.equals("*") && !LoggerRegistry.isKnownSource(source))
+                ? " (warning: no logger '" + source + "' yet, see 'level' for the known sources)"
+                : "";
+        if (args[2].equalsIgnoreCase("default"))
+        {
+            LoggerRegistry.clearLevel(source);
+            return source + " follows the default level " + LoggerRegistry.getDefaultLevel() + unknown;
+        }
+        LogLevel level;
+        try
+        {
+            level = LogLevel.valueOf(args[2].toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            return "Unknown level '" + args[2] + "'";
+        }
+        if (source.equals("*"))
+        {
+            LoggerRegistry.setDefaultLevel(level);
+        }
+        else
+        {
+            LoggerRegistry.setLevel(source, level);
+        }
+        log.info("Log level of %s set to %s", source, level);
+        return source + " -> " + level + unknown;
+    }
+
+    private String handleLogs(String[] args)
+    {
+        LogStore store = LogStore.getInstance();
+        if (store == null)
+        {
+            return "Log store is not running";
+        }
+        LogLevel level = LogLevel.INFO;
+        String source = null;
+        int minutes = 10;
+        int max = 100;
+        try
+        {
+            if (args.length > 1) level = LogLevel.valueOf(args[1].toUpperCase());
+            if (args.length > 2 && !args[2].equals("*")) source = args[2];
+            if (args.length > 3) minutes = Integer.parseInt(args[3]);
+            if (args.length > 4) max = Integer.parseInt(args[4]);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return "Usage: logs [LEVEL] [source|*] [minutes] [max]";
+        }
+
+        long start = System.nanoTime();
+        List<LogEntry> entries = store.query(level, source,
+                System.currentTimeMillis() - minutes * 60000L, max);
+        long micros = (System.nanoTime() - start) / 1000;
+
+        StringBuilder sb = new StringBuilder();
+        for (LogEntry entry : entries)
+        {
+            entry.appendTo(sb).append(NEWLINE);
+        }
+        return sb.append(entries.size()).append(" entries (").append(micros).append(" us)").toString();
+    }
+
+    private static String describeLink(VisionLinkStatus link)
+    {
+        long seconds = (System.currentTimeMillis() - link.getSinceMillis()) / 1000;
+        return link.getState() + " for " + seconds + " s"
+                + (link.getLastRttMicros() >= 0 ? ", last probe " + link.getLastRttMicros() / 1000.0 + " ms" : "")
+                + (link.getFailedConnects() > 0 ? ", " + link.getFailedConnects() + " failed connects" : "");
+    }
+
+    private String handleReference(String[] args)
+    {
+        ReferenceManager references = ReferenceManager.get();
+        if (args.length == 2)
+        {
+            references.requestChangeover(args[1]);
+        }
+        else if (args.length != 1)
+        {
+            return "Usage: reference [name]";
+        }
+        String active = references.getActive();
+        return "active: " + (active != null ? active : "none") + ", requested: " + references.getRequested()
+                + (references.isChangeoverPending() ? " (changeover pending)" : "");
+    }
+
+    private String handleThrottle(String[] args)
+    {
+        LogThrottle throttle = LogManager.getThrottle();
+        if (args.length == 3 && args[2].equalsIgnoreCase("default"))
+        {
+            throttle.clearRule(args[1]);
+            return throttle.describeRule(args[1], null);
+        }
+        if (args.length != 5)
+        {
+            return "Usage: throttle <source|*> <LEVEL|all> <perSecond> <on|off>";
+        }
+        LogLevel level = null;
+        int perSecond;
+        try
+        {
+            if (!args[2].equalsIgnoreCase("all"))
+            {
+                level = LogLevel.valueOf(args[2].toUpperCase());
+            }
+            perSecond = Integer.parseInt(args[3]);
         }
+        catch (IllegalArgumentException e)
+        {
+            return "Invalid level or rate: " + e.getMessage();
+        }
+        throttle.setRule(args[1], level, perSecond, args[4].equalsIgnoreCase("on"));
+        return throttle.describeRule(args[1], level);
     }
 
     @Override
@@ -63,4 +318,3 @@ public class ConsoleServer extends RoboticsAPICyclicBackgroundTask
         super.dispose();
     }
 }
-
@@ -0,0 +1,283 @@
+package biemhTekniker.logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Always-on in-memory recorder of the last {@link #CAPACITY} log calls, at
+ * every level, including DEBUG calls that the level table filtered out.
+ * <p>
+ * Recording happens on the calling thread: one atomic increment plus a few
+ * field writes into a pre-allocated slot, under the slot's own (practically
+ * uncontended) lock so a dump never reads a half-written slot. Templates are
+ * stored with their arguments and only formatted when the ring is dumped to
+ * a file, for example after an exception in the vision loop or when the
+ * application is disposed. Arguments that may change afterwards are turned
+ * into their string form when recorded.
+ */
+public final class FlightRecorder
+{
+    public static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    private static final long DEFAULT_MIN_DUMP_INTERVAL_MS = 60000;
+
+    private static final Slot[] slots = new Slot[CAPACITY];
+    private static final AtomicLong sequence = new AtomicLong(0);
+
+    private static volatile int threshold = LogLevel.DEBUG.ordinal();
+    private static volatile File dumpDirectory = new File("logs/flight");
+    private static volatile long minDumpIntervalMs = DEFAULT_MIN_DUMP_INTERVAL_MS;
+    private static long lastDumpMillis = 0;
+
+    static
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            slots[i] = new Slot();
+        }
+    }
+
+    private FlightRecorder() {}
+
+    public static void setLevel(LogLevel level)
+    {
+        threshold = level.ordinal();
+    }
+
+    public static void setDumpDirectory(File directory)
+    {
+        dumpDirectory = directory;
+    }
+
+    public static void setMinDumpInterval(long millis)
+    {
+        minDumpIntervalMs = millis;
+    }
+
+    static void record(long timestamp, LogLevel level, String source, String message)
+    {
+        if (level.ordinal() < threshold) return;
+        long seq = sequence.getAndIncrement();
+        Slot slot = slots[(int) seq & MASK];
+        synchronized (slot)
+        {
+            slot._sequence = seq;
+            slot._timestamp = timestamp;
+            slot._level = level;
+            slot._source = source;
+            slot._text = message;
+            slot._argCount = 0;
+            slot._o0 = slot._o1 = slot._o2 = null;
+        }
+    }
+
+    static void record(long timestamp, LogLevel level, String source, String template,
+                       int argCount, double a, double b, double c)
+    {
+        if (level.ordinal() < threshold) return;
+        long seq = sequence.getAndIncrement();
+        Slot slot = slots[(int) seq & MASK];
+        synchronized (slot)
+        {
+            slot._sequence = seq;
+            slot._timestamp = timestamp;
+            slot._level = level;
+            slot._source = source;
+            slot._text = template;
+            slot._argCount = argCount;
+            slot._numeric = true;
+            slot._d0 = a;
+            slot._d1 = b;
+            slot._d2 = c;
+            slot._o0 = slot._o1 = slot._o2 = null;
+        }
+    }
+
+    static void record(long timestamp, LogLevel level, String source, String template,
+                       int argCount, Object a, Object b, Object c)
+    {
+        if (level.ordinal() < threshold) return;
+        // Taken before the slot lock so a slow toString() does not hold it
+        Object s0 = snapshot(a), s1 = snapshot(b), s2 = snapshot(c);
+        long seq = sequence.getAndIncrement();
+        Slot slot = slots[(int) seq & MASK];
+        synchronized (slot)
+        {
+            slot._sequence = seq;
+            slot._timestamp = timestamp;
+            slot._level = level;
+            slot._source = source;
+            slot._text = template;
+            slot._argCount = argCount;
+            slot._numeric = false;
+            slot._o0 = s0;
+            slot._o1 = s1;
+            slot._o2 = s2;
+        }
+    }
+
+    // The caller may reuse and change a mutable argument before the dump
+    private static Object snapshot(Object arg)
+    {
+        if (arg == null || arg instanceof String || arg instanceof Number
+                || arg instanceof Boolean || arg instanceof Character || arg instanceof Enum)
+        {
+            return arg;
+        }
+        try
+        {
+            return String.valueOf(arg);
+        } catch (RuntimeException e)
+        {
+            return "[toString failed: " + e + "]";
+        }
+    }
+
+    /**
+     * Dumps the ring unless another dump was written less than the minimum
+     * interval ago. Meant for error paths that may fire repeatedly.
+     *
+     * @return the dump file, or null if skipped or failed
+     */
+    public static File dumpRateLimited(String reason, Throwable cause)
+    {
+        synchronized (FlightRecorder.class)
+        {
+            long now = System.currentTimeMillis();
+            if (now - lastDumpMillis < minDumpIntervalMs) return null;
+            lastDumpMillis = now;
+        }
+        return dump(reason, cause);
+    }
+
+    /**
+     * Writes the recorded entries, oldest first, to a new file in the dump directory.
+     *
+     * @return the dump file, or null if it could not be written
+     */
+    public static File dump(String reason, Throwable cause)
+    {
+        File dir = dumpDirectory;
+        if (!dir.isDirectory() && !dir.mkdirs())
+        {
+            System.err.println("FlightRecorder: cannot create " + dir.getAbsolutePath());
+            return null;
+        }
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        File file = new File(dir, "flight-" + stamp + ".log");
+
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            int count = writeTo(writer, reason, cause);
+            writer.close();
+            writer = null;
+            System.out.println("FlightRecorder: " + count + " entries dumped to " + file.getAbsolutePath());
+            return file;
+        } catch (IOException e)
+        {
+            System.err.println("FlightRecorder: dump failed: " + e.getMessage());
+            return null;
+        } finally
+        {
+            if (writer != null)
+            {
+                try { writer.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Writes the dump text to any writer, e.g. a console session.
+     *
+     * @return the number of entries written
+     */
+    public static int writeTo(Writer writer, String reason, Throwable cause) throws IOException
+    {
+        String newline = System.getProperty("line.separator");
+        writer.write("# Flight recorder dump: " + reason + newline);
+        if (cause != null)
+        {
+            PrintWriter pw = new PrintWriter(writer);
+            cause.printStackTrace(pw);
+            pw.flush();
+        }
+
+        long end = sequence.get();
+        long start = Math.max(0, end - CAPACITY);
+        StringBuilder line = new StringBuilder(256);
+        int count = 0;
+        for (long seq = start; seq < end; seq++)
+        {
+            line.setLength(0);
+            if (slots[(int) seq & MASK].render(seq, line))
+            {
+                writer.write(line.append(newline).toString());
+                count++;
+            }
+        }
+        writer.flush();
+        return count;
+    }
+
+    private static final class Slot
+    {
+        long _sequence = -1L;
+        long _timestamp;
+        LogLevel _level;
+        String _source;
+        String _text;
+        int _argCount;
+        boolean _numeric;
+        double _d0, _d1, _d2;
+        Object _o0, _o1, _o2;
+
+        // Copies under the lock and formats outside it; skips the slot if it was already reused
+        boolean render(long seq, StringBuilder out)
+        {
+            long timestamp;
+            LogLevel level;
+            String source;
+            String text;
+            int argCount;
+            boolean numeric;
+            double d0, d1, d2;
+            Object[] args;
+            synchronized (this)
+            {
+                if (_sequence != seq) return false;
+                timestamp = _timestamp;
+                level = _level;
+                source = _source;
+                text = _text;
+                argCount = _argCount;
+                numeric = _numeric;
+                d0 = _d0;
+                d1 = _d1;
+                d2 = _d2;
+                args = new Object[argCount];
+                for (int i = 0; i < argCount; i++)
+                {
+                    args[i] = i == 0 ? _o0 : (i == 1 ? _o1 : _o2);
+                }
+            }
+
+            String message = text;
+            if (argCount > 0 && text != null)
+            {
+                message = numeric ? LogFormat.format(text, argCount, d0, d1, d2) : LogFormat.format(text, args);
+            }
+            new LogEntry(timestamp, level, source, message).appendTo(out);
+            return true;
+        }
+    }
+}
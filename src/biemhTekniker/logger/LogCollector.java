@@ -1,19 +1,232 @@
 package biemhTekniker.logger;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Bounded hand-off queue between the log dispatcher and the LogPublisher.
+ * When it is full the configured {@link OverflowPolicy} decides which entry
+ * is sacrificed; every discarded entry is counted per level.
+ * <p>
+ * {@link #onNewLog} runs on the single dispatcher thread, so with
+ * {@link OverflowPolicy#BLOCK} a slow console holds up every other listener
+ * (journal, log server, store) for up to a second per entry.
+ */
 public class LogCollector implements ILogListener
 {
-    private final ConcurrentLinkedQueue<LogEntry> entries = new ConcurrentLinkedQueue<LogEntry>();
+    public enum OverflowPolicy
+    {
+        /** Discard the oldest queued entry. */
+        DROP_OLDEST,
+        /** Discard DEBUG entries first (incoming or queued), then the oldest entry. */
+        DROP_DEBUG_FIRST,
+        /**
+         * Wait for the consumer, up to BLOCK_TIMEOUT_MS, then discard the incoming entry.
+         * Stalls the dispatcher thread and with it all other listeners; only for
+         * diagnosing a console that cannot keep up.
+         */
+        BLOCK
+    }
+
+    public static final int DEFAULT_CAPACITY = 2048;
+    private static final long BLOCK_TIMEOUT_MS = 1000;
+
+    private final ArrayDeque<LogEntry> _entries;
+    private final int _capacity;
+    private final OverflowPolicy _policy;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _notEmpty = _lock.newCondition();
+    private final Condition _notFull = _lock.newCondition();
+    private final AtomicLongArray _dropped = new AtomicLongArray(LogLevel.values().length);
+
+    public LogCollector()
+    {
+        this(DEFAULT_CAPACITY, OverflowPolicy.DROP_DEBUG_FIRST);
+    }
+
+    public LogCollector(int capacity, OverflowPolicy policy)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this._entries = new ArrayDeque<LogEntry>(capacity);
+        this._capacity = capacity;
+        this._policy = policy;
+    }
 
     @Override
     public void onNewLog(LogEntry entry)
     {
-        entries.add(entry);
+        _lock.lock();
+        try
+        {
+            if (_entries.size() >= _capacity && !makeRoom(entry))
+            {
+                return;
+            }
+            _entries.addLast(entry);
+            if (_entries.size() == 1)
+            {
+                _notEmpty.signal();
+            }
+        } finally
+        {
+            _lock.unlock();
+        }
     }
 
     public LogEntry pollEntry()
     {
-        return entries.poll();
+        _lock.lock();
+        try
+        {
+            LogEntry entry = _entries.pollFirst();
+            if (entry != null)
+            {
+                _notFull.signal();
+            }
+            return entry;
+        } finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to {@code maxEntries} entries into {@code batch}, parking for at
+     * most {@code timeoutMillis} while the queue is empty.
+     *
+     * @return the number of entries added to the batch
+     */
+    public int drainTo(List<LogEntry> batch, int maxEntries, long timeoutMillis) throws InterruptedException
+    {
+        _lock.lockInterruptibly();
+        try
+        {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (_entries.isEmpty())
+            {
+                if (nanos <= 0) return 0;
+                nanos = _notEmpty.awaitNanos(nanos);
+            }
+            int count = 0;
+            while (count < maxEntries && !_entries.isEmpty())
+            {
+                batch.add(_entries.pollFirst());
+                count++;
+            }
+            _notFull.signalAll();
+            return count;
+        } finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to {@code maxEntries} queued entries into {@code batch} without
+     * waiting. Ignores the interrupt flag, so it can drain on shutdown.
+     *
+     * @return the number of entries added to the batch
+     */
+    public int drainTo(List<LogEntry> batch, int maxEntries)
+    {
+        _lock.lock();
+        try
+        {
+            int count = 0;
+            while (count < maxEntries && !_entries.isEmpty())
+            {
+                batch.add(_entries.pollFirst());
+                count++;
+            }
+            if (count > 0)
+            {
+                _notFull.signalAll();
+            }
+            return count;
+        } finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return _policy;
+    }
+
+    public long getDroppedCount()
+    {
+        long total = 0;
+        for (int i = 0; i < _dropped.length(); i++)
+        {
+            total += _dropped.get(i);
+        }
+        return total;
+    }
+
+    public long getDroppedCount(LogLevel level)
+    {
+        return _dropped.get(level.ordinal());
+    }
+
+    // Called with the lock held; returns false if the incoming entry is the one dropped.
+    private boolean makeRoom(LogEntry incoming)
+    {
+        switch (_policy)
+        {
+            case BLOCK:
+                long nanos = TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT_MS);
+                try
+                {
+                    while (_entries.size() >= _capacity && nanos > 0)
+                    {
+                        nanos = _notFull.awaitNanos(nanos);
+                    }
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                if (_entries.size() < _capacity) return true;
+                countDrop(incoming);
+                return false;
+
+            case DROP_DEBUG_FIRST:
+                if (incoming.getLevel() == LogLevel.DEBUG)
+                {
+                    countDrop(incoming);
+                    return false;
+                }
+                Iterator<LogEntry> it = _entries.iterator();
+                while (it.hasNext())
+                {
+                    LogEntry queued = it.next();
+                    if (queued.getLevel() == LogLevel.DEBUG)
+                    {
+                        it.remove();
+                        countDrop(queued);
+                        return true;
+                    }
+                }
+                countDrop(_entries.pollFirst());
+                return true;
+
+            case DROP_OLDEST:
+            default:
+                countDrop(_entries.pollFirst());
+                return true;
+        }
+    }
+
+    private void countDrop(LogEntry entry)
+    {
+        _dropped.incrementAndGet(entry.getLevel().ordinal());
     }
 }
@@ -0,0 +1,283 @@
+package biemhTekniker.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free multi-producer / single-consumer ring buffer between the logging
+ * threads and the listeners.
+ * <p>
+ * Producers claim a sequence with a CAS, fill the pre-allocated slot and
+ * publish it. A single daemon thread consumes the slots in order and hands
+ * each entry to the sink; whenever the ring runs empty it runs the idle task.
+ * When the ring is full the entry is dropped and counted instead of blocking
+ * the producer.
+ */
+final class LogDispatcher implements Runnable
+{
+    private static final long IDLE_PARK_NANOS = 50L * 1000L * 1000L;
+
+    private final Slot[] _slots;
+    private final int _mask;
+    private final AtomicLongArray _published;
+    private final AtomicLong _claimed = new AtomicLong(0);
+    private final AtomicLong _dropped = new AtomicLong(0);
+    private final ILogListener _sink;
+    private final Runnable _idleTask;
+
+    private volatile long _consumed = 0;
+    private volatile boolean _consumerWaiting = false;
+    private volatile Thread _consumerThread;
+    private long _reportedDrops = 0;
+
+    LogDispatcher(int capacity, ILogListener sink, Runnable idleTask)
+    {
+        if (Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        _slots = new Slot[capacity];
+        _mask = capacity - 1;
+        _published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+        {
+            _slots[i] = new Slot();
+            _published.set(i, -1L);
+        }
+        _sink = sink;
+        _idleTask = idleTask;
+    }
+
+    synchronized void start()
+    {
+        if (_consumerThread != null) return;
+        Thread thread = new Thread(this, "LogDispatcher-Thread");
+        thread.setDaemon(true);
+        _consumerThread = thread;
+        thread.start();
+    }
+
+    void publish(LogEntry entry)
+    {
+        long seq = claim();
+        if (seq < 0) return;
+        _slots[(int) seq & _mask]._entry = entry;
+        commit(seq);
+    }
+
+    void publish(long timestamp, LogLevel level, String source, String message)
+    {
+        long seq = claim();
+        if (seq < 0) return;
+        Slot slot = _slots[(int) seq & _mask];
+        slot._timestamp = timestamp;
+        slot._level = level;
+        slot._source = source;
+        slot._message = message;
+        commit(seq);
+    }
+
+    void publish(long timestamp, LogLevel level, String source, String template,
+                 int argCount, double a, double b, double c)
+    {
+        long seq = claim();
+        if (seq < 0) return;
+        Slot slot = _slots[(int) seq & _mask];
+        slot._timestamp = timestamp;
+        slot._level = level;
+        slot._source = source;
+        slot._template = template;
+        slot._argCount = argCount;
+        slot._numeric = true;
+        slot._numbers[0] = a;
+        slot._numbers[1] = b;
+        slot._numbers[2] = c;
+        commit(seq);
+    }
+
+    void publish(long timestamp, LogLevel level, String source, String template,
+                 int argCount, Object a, Object b, Object c)
+    {
+        long seq = claim();
+        if (seq < 0) return;
+        Slot slot = _slots[(int) seq & _mask];
+        slot._timestamp = timestamp;
+        slot._level = level;
+        slot._source = source;
+        slot._template = template;
+        slot._argCount = argCount;
+        slot._numeric = false;
+        slot._objects[0] = a;
+        slot._objects[1] = b;
+        slot._objects[2] = c;
+        commit(seq);
+    }
+
+    long getDroppedCount()
+    {
+        return _dropped.get();
+    }
+
+    /**
+     * Waits until everything published before this call has been handed to the sink.
+     */
+    boolean awaitDrained(long timeoutMillis)
+    {
+        long target = _claimed.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (_consumed < target)
+        {
+            if (System.currentTimeMillis() >= deadline) return false;
+            Thread thread = _consumerThread;
+            if (thread != null) LockSupport.unpark(thread);
+            try
+            {
+                Thread.sleep(1);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long claim()
+    {
+        long seq;
+        do
+        {
+            seq = _claimed.get();
+            if (seq - _consumed >= _slots.length)
+            {
+                _dropped.incrementAndGet();
+                return -1L;
+            }
+        } while (!_claimed.compareAndSet(seq, seq + 1));
+        return seq;
+    }
+
+    private void commit(long seq)
+    {
+        _published.set((int) seq & _mask, seq);
+        if (_consumerWaiting)
+        {
+            LockSupport.unpark(_consumerThread);
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        long next = _consumed;
+        while (true)
+        {
+            int index = (int) next & _mask;
+            if (_published.get(index) == next)
+            {
+                LogEntry entry = _slots[index].take();
+                _consumed = ++next;
+                deliver(entry);
+            } else
+            {
+                reportDrops();
+                runIdleTask();
+                _consumerWaiting = true;
+                if (_published.get(index) != next)
+                {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                _consumerWaiting = false;
+            }
+        }
+    }
+
+    private void reportDrops()
+    {
+        long dropped = _dropped.get();
+        if (dropped != _reportedDrops)
+        {
+            deliver(new LogEntry(LogLevel.WARN, "LogManager",
+                    (dropped - _reportedDrops) + " log entries dropped, dispatch ring full"));
+            _reportedDrops = dropped;
+        }
+    }
+
+    private void runIdleTask()
+    {
+        if (_idleTask == null) return;
+        try
+        {
+            _idleTask.run();
+        } catch (RuntimeException e)
+        {
+            System.err.println("LogDispatcher: idle task failed: " + e);
+        }
+    }
+
+    private void deliver(LogEntry entry)
+    {
+        try
+        {
+            _sink.onNewLog(entry);
+        } catch (RuntimeException e)
+        {
+            System.err.println("LogDispatcher: sink failed: " + e);
+        }
+    }
+
+    /**
+     * Pre-allocated ring slot. Either carries a ready-made entry, a plain
+     * message, or a format template with its arguments which is only
+     * rendered here on the consumer thread.
+     */
+    private static final class Slot
+    {
+        static final int MAX_ARGS = 3;
+
+        LogEntry _entry;
+        long _timestamp;
+        LogLevel _level;
+        String _source;
+        String _message;
+        String _template;
+        int _argCount;
+        boolean _numeric;
+        final double[] _numbers = new double[MAX_ARGS];
+        final Object[] _objects = new Object[MAX_ARGS];
+
+        LogEntry take()
+        {
+            LogEntry entry;
+            if (_entry != null)
+            {
+                entry = _entry;
+            } else
+            {
+                String message = _template != null ? format() : _message;
+                entry = new LogEntry(_timestamp, _level, _source, message);
+            }
+            _entry = null;
+            _source = null;
+            _message = null;
+            _template = null;
+            for (int i = 0; i < MAX_ARGS; i++)
+            {
+                _objects[i] = null;
+            }
+            return entry;
+        }
+
+        private String format()
+        {
+            if (_numeric)
+            {
+                return LogFormat.format(_template, _argCount, _numbers[0], _numbers[1], _numbers[2]);
+            }
+            Object[] args = new Object[_argCount];
+            System.arraycopy(_objects, 0, args, 0, _argCount);
+            return LogFormat.format(_template, args);
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package biemhTekniker.logger;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.IOException;
 
 public class LogEntry
 {
-    private static final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
+    // Level names padded to five characters, indexed by ordinal
+    private static final String[] PADDED_LEVELS = paddedLevelNames();
+
     private final long timestamp;
     private final LogLevel level;
     private final String source;
@@ -13,17 +14,47 @@ public class LogEntry
 
     public LogEntry(LogLevel level, String source, String message)
     {
-        this.timestamp = System.currentTimeMillis();
+        this(System.currentTimeMillis(), level, source, message);
+    }
+
+    public LogEntry(long timestamp, LogLevel level, String source, String message)
+    {
+        this.timestamp = timestamp;
         this.level = level;
         this.source = source;
         this.message = message;
     }
 
+    /**
+     * Renders the entry as {@code [HH:mm:ss.SSS] source | LEVEL: message}.
+     */
+    public StringBuilder appendTo(StringBuilder sb)
+    {
+        sb.append('[');
+        TimestampFormat.appendTo(timestamp, sb);
+        sb.append("] ").append(source).append(" | ")
+                .append(PADDED_LEVELS[level.ordinal()]).append(": ").append(message);
+        return sb;
+    }
+
+    public void appendTo(Appendable out) throws IOException
+    {
+        out.append('[');
+        TimestampFormat.appendTo(timestamp, out);
+        out.append("] ").append(source).append(" | ")
+                .append(PADDED_LEVELS[level.ordinal()]).append(": ").append(message);
+    }
+
     @Override
     public String toString()
     {
-        return String.format("[%s] %s | %-5s: %s",
-                sdf.format(new Date(timestamp)), source, level, message);
+        int length = 24 + (source != null ? source.length() : 4) + (message != null ? message.length() : 4);
+        return appendTo(new StringBuilder(length)).toString();
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
     }
 
     public LogLevel getLevel()
@@ -35,4 +66,25 @@ public class LogEntry
     {
         return source;
     }
-}
\ No newline at end of file
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    private static String[] paddedLevelNames()
+    {
+        LogLevel[] levels = LogLevel.values();
+        String[] names = new String[levels.length];
+        for (int i = 0; i < levels.length; i++)
+        {
+            StringBuilder sb = new StringBuilder(levels[i].name());
+            while (sb.length() < 5)
+            {
+                sb.append(' ');
+            }
+            names[i] = sb.toString();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,100 @@
+package biemhTekniker.logger;
+
+/**
+ * Renders the deferred templates of {@link Logger}.
+ * <p>
+ * Numeric arguments travel as doubles, so an int or long passed to a template
+ * arrives as a double. Where the template formats an argument with an integer
+ * conversion ({@code %d}, {@code %x}, {@code %o}) and the value is integral,
+ * it is handed to {@link String#format} as a long instead.
+ */
+final class LogFormat
+{
+    private LogFormat() {}
+
+    static String format(String template, int argCount, double a, double b, double c)
+    {
+        Object[] args = new Object[argCount];
+        for (int i = 0; i < argCount; i++)
+        {
+            double value = i == 0 ? a : (i == 1 ? b : c);
+            args[i] = (isIntegral(value) && isIntegerConversion(template, i)) ? (Object) (long) value : (Object) value;
+        }
+        return format(template, args);
+    }
+
+    static String format(String template, Object[] args)
+    {
+        try
+        {
+            return String.format(template, args);
+        } catch (RuntimeException e)
+        {
+            return template + " [format error: " + e.getMessage() + "]";
+        }
+    }
+
+    private static boolean isIntegral(double value)
+    {
+        return value == Math.rint(value) && !Double.isInfinite(value)
+                && value >= Long.MIN_VALUE && value <= Long.MAX_VALUE;
+    }
+
+    /**
+     * Whether the template formats argument {@code index} (0-based) with d, o, x or X.
+     * Follows ordinary, explicit ({@code %2$d}) and relative ({@code %<d}) indexing.
+     */
+    static boolean isIntegerConversion(String template, int index)
+    {
+        int ordinary = 0;
+        int previous = -1;
+        int length = template.length();
+        for (int i = 0; i < length; i++)
+        {
+            if (template.charAt(i) != '%') continue;
+            int j = i + 1;
+            if (j >= length) break;
+            char c = template.charAt(j);
+            if (c == '%' || c == 'n')
+            {
+                i = j;
+                continue;
+            }
+            // Optional explicit index: digits followed by '$'
+            int argument = -1;
+            int digits = j;
+            while (digits < length && Character.isDigit(template.charAt(digits))) digits++;
+            if (digits > j && digits < length && template.charAt(digits) == '$')
+            {
+                argument = Integer.parseInt(template.substring(j, digits)) - 1;
+                j = digits + 1;
+            }
+            // Flags, width and precision
+            boolean relative = false;
+            while (j < length && "-#+ 0,(<".indexOf(template.charAt(j)) >= 0)
+            {
+                if (template.charAt(j) == '<') relative = true;
+                j++;
+            }
+            while (j < length && (Character.isDigit(template.charAt(j)) || template.charAt(j) == '.')) j++;
+            if (j >= length) break;
+            char conversion = template.charAt(j);
+            if (relative)
+            {
+                argument = previous;
+            } else if (argument < 0)
+            {
+                argument = ordinary++;
+            }
+            previous = argument;
+            if (argument == index)
+            {
+                return conversion == 'd' || conversion == 'o' || conversion == 'x' || conversion == 'X';
+            }
+            // Date/time conversions carry a second character
+            if (conversion == 't' || conversion == 'T') j++;
+            i = j;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,322 @@
+package biemhTekniker.logger;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Log sink that appends entries to rolling, memory-mapped segment files so
+ * the shift's log survives an application or controller restart.
+ * <p>
+ * Entries are written by the dispatcher thread straight into the mapped
+ * segment, so no system call is made per entry. A segment is forced to disk
+ * when it is full or the journal is closed; the oldest segments are deleted
+ * once more than {@code maxSegments} exist.
+ * <p>
+ * Segment layout (big-endian):
+ * <pre>
+ * header : int MAGIC, short VERSION, long createdMillis
+ * source : byte RECORD_SOURCE, short id, short length, UTF-8 name
+ * entry  : byte RECORD_ENTRY, long millis, byte level, short sourceId, int length, UTF-8 message
+ * end    : byte RECORD_END (the zero fill of a fresh segment)
+ * </pre>
+ * Source ids are interned per segment, so every segment can be read on its own
+ * with {@link LogJournalReader}.
+ */
+public class LogJournal implements ILogListener
+{
+    static final int MAGIC = 0x424C4A31; // "BLJ1"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 4 + 2 + 8;
+    static final byte RECORD_END = 0;
+    static final byte RECORD_SOURCE = 1;
+    static final byte RECORD_ENTRY = 2;
+    static final int ENTRY_OVERHEAD = 1 + 8 + 1 + 2 + 4;
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private final File _directory;
+    private final int _segmentSize;
+    private final int _maxSegments;
+    private final Map<String, Short> _sourceIds = new HashMap<String, Short>();
+
+    private MappedByteBuffer _segment;
+    private long _segmentNumber;
+    private boolean _closed = false;
+
+    public LogJournal(File directory, int segmentSize, int maxSegments) throws IOException
+    {
+        if (segmentSize < MIN_SEGMENT_SIZE)
+        {
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + " bytes");
+        }
+        if (maxSegments < 1)
+        {
+            throw new IllegalArgumentException("At least one segment must be kept");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create journal directory " + directory.getAbsolutePath());
+        }
+        this._directory = directory;
+        this._segmentSize = segmentSize;
+        this._maxSegments = maxSegments;
+
+        File[] existing = listSegments(directory);
+        _segmentNumber = existing.length > 0 ? segmentNumber(existing[existing.length - 1]) : 0;
+        openNextSegment();
+    }
+
+    @Override
+    public synchronized void onNewLog(LogEntry entry)
+    {
+        if (_closed) return;
+        try
+        {
+            String source = entry.getSource() != null ? entry.getSource() : "";
+            String message = entry.getMessage() != null ? entry.getMessage() : "";
+
+            // Keep one byte free for the end marker
+            int messageBytes = Math.min(utf8Length(message), _segmentSize / 2);
+            int needed = ENTRY_OVERHEAD + messageBytes + 1;
+            if (!_sourceIds.containsKey(source))
+            {
+                needed += 1 + 2 + 2 + Math.min(utf8Length(source), Short.MAX_VALUE);
+            }
+            if (_segment.remaining() < needed)
+            {
+                openNextSegment();
+            }
+
+            short sourceId = internSource(source);
+            _segment.put(RECORD_ENTRY);
+            _segment.putLong(entry.getTimestamp());
+            _segment.put((byte) entry.getLevel().ordinal());
+            _segment.putShort(sourceId);
+            _segment.putInt(messageBytes);
+            putUtf8(message, messageBytes);
+        } catch (IOException e)
+        {
+            // Nothing sensible to log to from inside the log pipeline
+            System.err.println("LogJournal: " + e.getMessage());
+            _closed = true;
+        }
+    }
+
+    public synchronized void close()
+    {
+        if (_closed) return;
+        _closed = true;
+        if (_segment != null)
+        {
+            _segment.force();
+            unmap(_segment);
+            _segment = null;
+        }
+    }
+
+    public File getDirectory()
+    {
+        return _directory;
+    }
+
+    /**
+     * Segment files of a journal directory, oldest first.
+     */
+    public static File[] listSegments(File directory)
+    {
+        File[] files = directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void openNextSegment() throws IOException
+    {
+        if (_segment != null)
+        {
+            _segment.force();
+            // A mapped file cannot be deleted on Windows until the mapping is gone
+            unmap(_segment);
+            _segment = null;
+        }
+        _segmentNumber++;
+        File file = new File(_directory, String.format("%s%08d%s", SEGMENT_PREFIX, _segmentNumber, SEGMENT_SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(_segmentSize);
+            _segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+        } finally
+        {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+        _segment.putInt(MAGIC);
+        _segment.putShort(VERSION);
+        _segment.putLong(System.currentTimeMillis());
+        _sourceIds.clear();
+        deleteOldSegments();
+    }
+
+    private void deleteOldSegments()
+    {
+        File[] segments = listSegments(_directory);
+        for (int i = 0; i < segments.length - _maxSegments; i++)
+        {
+            // Still listed at the next rollover, so a failed delete is retried then
+            if (!segments[i].delete())
+            {
+                System.err.println("LogJournal: could not delete " + segments[i] + ", retrying at next rollover");
+            }
+        }
+    }
+
+    /**
+     * Releases a mapping now rather than when the buffer is garbage collected.
+     * The buffer must not be touched afterwards. Best effort: if the JVM offers
+     * no way to do it, the mapping is left to the garbage collector.
+     */
+    static void unmap(MappedByteBuffer buffer)
+    {
+        try
+        {
+            // Java 7 and 8: DirectBuffer.cleaner().clean()
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null)
+            {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            return;
+        } catch (Exception ignored)
+        {
+            // Not accessible on Java 9 and later
+        }
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (Exception ignored)
+        {
+            // Left to the garbage collector
+        }
+    }
+
+    private short internSource(String source)
+    {
+        Short id = _sourceIds.get(source);
+        if (id != null) return id;
+
+        short newId = (short) _sourceIds.size();
+        _sourceIds.put(source, newId);
+        int length = Math.min(utf8Length(source), Short.MAX_VALUE);
+        _segment.put(RECORD_SOURCE);
+        _segment.putShort(newId);
+        _segment.putShort((short) length);
+        putUtf8(source, length);
+        return newId;
+    }
+
+    // Writes the UTF-8 form of text, stopping before maxBytes would be exceeded
+    private void putUtf8(String text, int maxBytes)
+    {
+        int written = 0;
+        for (int i = 0; i < text.length() && written < maxBytes; i++)
+        {
+            char c = text.charAt(i);
+            if (c < 0x80)
+            {
+                _segment.put((byte) c);
+                written += 1;
+            } else if (c < 0x800)
+            {
+                if (written + 2 > maxBytes) break;
+                _segment.put((byte) (0xC0 | (c >> 6)));
+                _segment.put((byte) (0x80 | (c & 0x3F)));
+                written += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                if (written + 4 > maxBytes) break;
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                _segment.put((byte) (0xF0 | (cp >> 18)));
+                _segment.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                _segment.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                _segment.put((byte) (0x80 | (cp & 0x3F)));
+                written += 4;
+            } else
+            {
+                if (written + 3 > maxBytes) break;
+                _segment.put((byte) (0xE0 | (c >> 12)));
+                _segment.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                _segment.put((byte) (0x80 | (c & 0x3F)));
+                written += 3;
+            }
+        }
+        // Pad a truncated multi-byte tail so the recorded length stays exact
+        while (written < maxBytes)
+        {
+            _segment.put((byte) ' ');
+            written++;
+        }
+    }
+
+    static int utf8Length(String text)
+    {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c < 0x80)
+            {
+                length += 1;
+            } else if (c < 0x800)
+            {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                length += 4;
+                i++;
+            } else
+            {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static long segmentNumber(File segment)
+    {
+        String name = segment.getName();
+        try
+        {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+}
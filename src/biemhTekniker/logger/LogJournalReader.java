@@ -0,0 +1,158 @@
+package biemhTekniker.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cursor over one {@link LogJournal} segment.
+ * <p>
+ * The segment is mapped read-only and {@link #next()} only moves offsets; the
+ * message bytes are exposed through a reused view of the mapping, so iterating
+ * a segment copies nothing unless the caller asks for a String.
+ * <pre>
+ * LogJournalReader reader = LogJournalReader.open(segment);
+ * while (reader.next()) {
+ *     if (reader.getLevel() == LogLevel.ERROR) ... reader.getMessage() ...
+ * }
+ * </pre>
+ */
+public class LogJournalReader
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    private final ByteBuffer _buffer;
+    private final ByteBuffer _messageView;
+    private final long _createdMillis;
+    private final List<String> _sources = new ArrayList<String>();
+
+    private long _timestamp;
+    private LogLevel _level;
+    private int _sourceId;
+    private int _messageOffset;
+    private int _messageLength;
+
+    private LogJournalReader(ByteBuffer buffer) throws IOException
+    {
+        this._buffer = buffer;
+        if (buffer.remaining() < LogJournal.HEADER_SIZE || buffer.getInt() != LogJournal.MAGIC)
+        {
+            throw new IOException("Not a log journal segment");
+        }
+        short version = buffer.getShort();
+        if (version != LogJournal.VERSION)
+        {
+            throw new IOException("Unsupported journal version " + version);
+        }
+        this._createdMillis = buffer.getLong();
+        this._messageView = buffer.duplicate();
+    }
+
+    public static LogJournalReader open(File segment) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(segment, "r");
+        try
+        {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return new LogJournalReader(buffer);
+        } finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Advances to the next entry.
+     *
+     * @return false at the end of the written part of the segment
+     */
+    public boolean next() throws IOException
+    {
+        while (_buffer.hasRemaining())
+        {
+            byte type = _buffer.get();
+            if (type == LogJournal.RECORD_END)
+            {
+                _buffer.position(_buffer.position() - 1);
+                return false;
+            } else if (type == LogJournal.RECORD_SOURCE)
+            {
+                int id = _buffer.getShort();
+                int length = _buffer.getShort();
+                byte[] name = new byte[length];
+                _buffer.get(name);
+                while (_sources.size() <= id)
+                {
+                    _sources.add(null);
+                }
+                _sources.set(id, new String(name, UTF8));
+            } else if (type == LogJournal.RECORD_ENTRY)
+            {
+                _timestamp = _buffer.getLong();
+                _level = LEVELS[_buffer.get()];
+                _sourceId = _buffer.getShort();
+                _messageLength = _buffer.getInt();
+                _messageOffset = _buffer.position();
+                _buffer.position(_messageOffset + _messageLength);
+                return true;
+            } else
+            {
+                throw new IOException("Corrupt journal record type " + type + " at " + (_buffer.position() - 1));
+            }
+        }
+        return false;
+    }
+
+    public long getSegmentCreatedMillis()
+    {
+        return _createdMillis;
+    }
+
+    public long getTimestamp()
+    {
+        return _timestamp;
+    }
+
+    public LogLevel getLevel()
+    {
+        return _level;
+    }
+
+    public int getSourceId()
+    {
+        return _sourceId;
+    }
+
+    public String getSource()
+    {
+        return _sourceId < _sources.size() ? _sources.get(_sourceId) : null;
+    }
+
+    /**
+     * UTF-8 bytes of the current message as a view into the mapping.
+     * The returned buffer is reused by the next call.
+     */
+    public ByteBuffer getMessageBytes()
+    {
+        _messageView.limit(_messageOffset + _messageLength);
+        _messageView.position(_messageOffset);
+        return _messageView;
+    }
+
+    public String getMessage()
+    {
+        return UTF8.decode(getMessageBytes()).toString();
+    }
+
+    public LogEntry toEntry()
+    {
+        return new LogEntry(_timestamp, _level, getSource(), getMessage());
+    }
+}
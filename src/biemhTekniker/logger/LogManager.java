@@ -9,28 +9,97 @@ public class LogManager {
 
     private static final LinkedList<LogEntry> startupBuffer = new LinkedList<LogEntry>();
     private static final int MAX_BUFFER_SIZE = 50;
+    private static final int RING_SIZE = 4096;
 
-    public static synchronized void broadcast(LogEntry entry) {
-        if (listeners.isEmpty()) {
-            if (startupBuffer.size() >= MAX_BUFFER_SIZE) {
-                startupBuffer.removeFirst();
-            }
-            startupBuffer.addLast(entry);
-        } else {
-            for (ILogListener listener : listeners) {
-                listener.onNewLog(entry);
-            }
+    // Suppression stage in front of the listeners, confined to the dispatcher thread
+    private static final LogThrottle throttle = new LogThrottle(new ILogListener() {
+        @Override
+        public void onNewLog(LogEntry entry) {
+            dispatch(entry);
         }
+    });
+
+    // Producers only touch the ring; listeners run on the dispatcher thread
+    private static final LogDispatcher dispatcher = new LogDispatcher(RING_SIZE, throttle, new Runnable() {
+        @Override
+        public void run() {
+            throttle.tick();
+        }
+    });
+
+    static {
+        dispatcher.start();
+    }
+
+    public static void broadcast(LogEntry entry) {
+        FlightRecorder.record(entry.getTimestamp(), entry.getLevel(), entry.getSource(), entry.getMessage());
+        dispatcher.publish(entry);
+    }
+
+    static void publish(long timestamp, LogLevel level, String source, String message) {
+        dispatcher.publish(timestamp, level, source, message);
+    }
+
+    static void publish(long timestamp, LogLevel level, String source, String template,
+                        int argCount, double a, double b, double c) {
+        dispatcher.publish(timestamp, level, source, template, argCount, a, b, c);
+    }
+
+    static void publish(long timestamp, LogLevel level, String source, String template,
+                        int argCount, Object a, Object b, Object c) {
+        dispatcher.publish(timestamp, level, source, template, argCount, a, b, c);
     }
 
-    public static synchronized void register(ILogListener listener) {
-        listeners.add(listener);
-        while (!startupBuffer.isEmpty()) {
-            listener.onNewLog(startupBuffer.pollFirst());
+    public static void register(ILogListener listener) {
+        synchronized (startupBuffer) {
+            listeners.add(listener);
+            while (!startupBuffer.isEmpty()) {
+                listener.onNewLog(startupBuffer.pollFirst());
+            }
         }
     }
 
     public static void unregister(ILogListener listener) {
         listeners.remove(listener);
     }
-}
\ No newline at end of file
+
+    /**
+     * Blocks until every entry logged before this call has reached the listeners.
+     */
+    public static boolean flush(long timeoutMillis) {
+        return dispatcher.awaitDrained(timeoutMillis);
+    }
+
+    /**
+     * Repeat collapsing and per-source rate limits applied before the listeners.
+     */
+    public static LogThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Number of entries discarded because the dispatch ring was full.
+     */
+    public static long getDroppedCount() {
+        return dispatcher.getDroppedCount();
+    }
+
+    private static void dispatch(LogEntry entry) {
+        synchronized (startupBuffer) {
+            if (listeners.isEmpty()) {
+                if (startupBuffer.size() >= MAX_BUFFER_SIZE) {
+                    startupBuffer.removeFirst();
+                }
+                startupBuffer.addLast(entry);
+                return;
+            }
+        }
+        for (ILogListener listener : listeners) {
+            try {
+                listener.onNewLog(entry);
+            } catch (RuntimeException e) {
+                System.err.println("LogManager: listener failed: " + e);
+            }
+        }
+    }
+}
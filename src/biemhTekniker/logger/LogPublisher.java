@@ -1,11 +1,22 @@
 package biemhTekniker.logger;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class LogPublisher implements Runnable
 {
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_WAIT_MS = 1000;
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
     private final LogCollector _logCollector;
     private Thread _workerThread;
     private volatile boolean _running = false;
-    private LogLevel _filterLevel = LogLevel.DEBUG;
+    private volatile LogLevel _filterLevel = LogLevel.DEBUG;
+
+    private final List<LogEntry> _batch = new ArrayList<LogEntry>(MAX_BATCH);
+    private final StringBuilder _buffer = new StringBuilder(16 * 1024);
+    private long _reportedDrops = 0;
 
     public LogPublisher(LogCollector collector)
     {
@@ -37,18 +48,51 @@ public class LogPublisher implements Runnable
     @Override
     public void run() {
         while (_running) {
-            LogEntry entry = _logCollector.pollEntry();
-            if (entry != null) {
-                if (entry.getLevel().ordinal() >= _filterLevel.ordinal()) {
-                    System.out.println(entry);
-                }
-            } else {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    break;
-                }
+            try {
+                // Parks inside the collector until entries arrive
+                _logCollector.drainTo(_batch, MAX_BATCH, IDLE_WAIT_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            publishBatch();
+        }
+
+        // Print whatever is still queued so the last messages are not lost on stop;
+        // stop() interrupts this thread, so the drain must not be interruptible
+        boolean interrupted = Thread.interrupted();
+        while (_logCollector.drainTo(_batch, MAX_BATCH) > 0) {
+            publishBatch();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publishBatch() {
+        _buffer.setLength(0);
+        LogLevel filter = _filterLevel;
+        for (int i = 0; i < _batch.size(); i++) {
+            LogEntry entry = _batch.get(i);
+            if (entry.getLevel().ordinal() >= filter.ordinal()) {
+                entry.appendTo(_buffer).append(LINE_SEPARATOR);
             }
         }
+        _batch.clear();
+
+        long dropped = _logCollector.getDroppedCount();
+        if (dropped != _reportedDrops) {
+            appendLine("LogPublisher: " + (dropped - _reportedDrops) + " log entries dropped ("
+                    + _logCollector.getOverflowPolicy() + ")");
+            _reportedDrops = dropped;
+        }
+
+        if (_buffer.length() > 0) {
+            System.out.print(_buffer);
+            System.out.flush();
+        }
+    }
+
+    private void appendLine(String line) {
+        _buffer.append(line).append(LINE_SEPARATOR);
     }
-}
\ No newline at end of file
+}
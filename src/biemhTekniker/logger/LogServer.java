@@ -0,0 +1,294 @@
+package biemhTekniker.logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking, telnet-style log server.
+ * <p>
+ * The dispatcher thread renders each entry once and appends it to the
+ * outgoing queue of every connected client; a single selector thread writes
+ * the queues with gathering writes. Each client may have at most
+ * {@code maxPendingBytes} queued. A client that falls further behind is
+ * disconnected, so a stalled laptop never backs up the log pipeline.
+ */
+public class LogServer implements ILogListener, Runnable
+{
+    public static final int DEFAULT_MAX_PENDING_BYTES = 256 * 1024;
+
+    private static final Logger log = Logger.getLogger(LogServer.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] LINE_END = "\r\n".getBytes(UTF8);
+    private static final int MAX_GATHER = 64;
+
+    private final int _port;
+    private final int _maxPendingBytes;
+    private final List<Client> _clients = new CopyOnWriteArrayList<Client>();
+    private final AtomicBoolean _wakeupPending = new AtomicBoolean(false);
+    private final ByteBuffer _readScratch = ByteBuffer.allocate(1024);
+    private final StringBuilder _line = new StringBuilder(256);
+
+    private Selector _selector;
+    private ServerSocketChannel _serverChannel;
+    private Thread _workerThread;
+    private volatile boolean _running = false;
+
+    public LogServer(int port)
+    {
+        this(port, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    public LogServer(int port, int maxPendingBytes)
+    {
+        this._port = port;
+        this._maxPendingBytes = maxPendingBytes;
+    }
+
+    public void start() throws IOException
+    {
+        if (_running) return;
+        _selector = Selector.open();
+        _serverChannel = ServerSocketChannel.open();
+        _serverChannel.socket().setReuseAddress(true);
+        _serverChannel.socket().bind(new InetSocketAddress(_port));
+        _serverChannel.configureBlocking(false);
+        _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+
+        _running = true;
+        _workerThread = new Thread(this, "LogServer-Thread");
+        _workerThread.setDaemon(true);
+        _workerThread.start();
+        log.info("Log server listening on port %s", _port);
+    }
+
+    public void stop()
+    {
+        _running = false;
+        if (_selector != null)
+        {
+            _selector.wakeup();
+        }
+    }
+
+    public int getClientCount()
+    {
+        return _clients.size();
+    }
+
+    @Override
+    public void onNewLog(LogEntry entry)
+    {
+        if (_clients.isEmpty()) return;
+
+        _line.setLength(0);
+        entry.appendTo(_line);
+        byte[] text = _line.toString().getBytes(UTF8);
+
+        for (Client client : _clients)
+        {
+            client.offer(text);
+        }
+        if (_wakeupPending.compareAndSet(false, true))
+        {
+            _selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (_running)
+            {
+                _selector.select(1000);
+                // Cleared before the queues are served so later offers trigger a new wakeup
+                _wakeupPending.set(false);
+
+                Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    } else
+                    {
+                        Client client = (Client) key.attachment();
+                        if (key.isReadable()) readAndDiscard(client);
+                        if (key.isValid() && key.isWritable()) client._writeBlocked = false;
+                    }
+                }
+                serviceClients();
+            }
+        } catch (IOException e)
+        {
+            log.error("Log server stopped: %s", e.getMessage());
+        } catch (ClosedSelectorException ignored)
+        {
+        } finally
+        {
+            shutdown();
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = _serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel);
+        client._key = channel.register(_selector, SelectionKey.OP_READ, client);
+        _clients.add(client);
+        log.info("Log client connected: %s", channel.socket().getRemoteSocketAddress());
+    }
+
+    private void readAndDiscard(Client client)
+    {
+        try
+        {
+            _readScratch.clear();
+            if (client._channel.read(_readScratch) < 0)
+            {
+                disconnect(client, "closed by peer");
+            }
+        } catch (IOException e)
+        {
+            disconnect(client, e.getMessage());
+        }
+    }
+
+    private void serviceClients()
+    {
+        for (Client client : _clients)
+        {
+            if (client._overflowed)
+            {
+                disconnect(client, "too slow, more than " + _maxPendingBytes + " bytes behind");
+                continue;
+            }
+            if (client._writeBlocked) continue;
+            try
+            {
+                boolean drained = client.flush();
+                client._writeBlocked = !drained;
+                client._key.interestOps(drained ? SelectionKey.OP_READ
+                        : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException e)
+            {
+                disconnect(client, e.getMessage());
+            }
+        }
+    }
+
+    private void disconnect(Client client, String reason)
+    {
+        if (!_clients.remove(client)) return;
+        try
+        {
+            client._key.cancel();
+            client._channel.close();
+        } catch (IOException ignored)
+        {
+        }
+        log.info("Log client disconnected: %s", reason);
+    }
+
+    private void shutdown()
+    {
+        for (Client client : _clients)
+        {
+            disconnect(client, "server stopped");
+        }
+        try
+        {
+            if (_serverChannel != null) _serverChannel.close();
+            if (_selector != null) _selector.close();
+        } catch (IOException ignored)
+        {
+        }
+        _running = false;
+    }
+
+    /**
+     * Per-client state. The queue is filled by the dispatcher thread and
+     * drained by the selector thread; everything else belongs to the selector.
+     */
+    private final class Client
+    {
+        final SocketChannel _channel;
+        final ConcurrentLinkedQueue<ByteBuffer> _queue = new ConcurrentLinkedQueue<ByteBuffer>();
+        final AtomicInteger _pendingBytes = new AtomicInteger(0);
+        final ByteBuffer[] _gather = new ByteBuffer[MAX_GATHER];
+        int _gatherIndex = 0;
+        int _gatherCount = 0;
+        SelectionKey _key;
+        volatile boolean _overflowed = false;
+        boolean _writeBlocked = false;
+
+        Client(SocketChannel channel)
+        {
+            this._channel = channel;
+        }
+
+        void offer(byte[] text)
+        {
+            if (_overflowed) return;
+            int size = text.length + LINE_END.length;
+            if (_pendingBytes.addAndGet(size) > _maxPendingBytes)
+            {
+                _overflowed = true;
+                return;
+            }
+            _queue.add(ByteBuffer.wrap(text));
+            _queue.add(ByteBuffer.wrap(LINE_END));
+        }
+
+        /**
+         * Writes as much as the socket accepts.
+         *
+         * @return true if the queue is empty, false if the socket buffer is full
+         */
+        boolean flush() throws IOException
+        {
+            while (true)
+            {
+                if (_gatherIndex == _gatherCount)
+                {
+                    _gatherIndex = 0;
+                    _gatherCount = 0;
+                    ByteBuffer next;
+                    while (_gatherCount < MAX_GATHER && (next = _queue.poll()) != null)
+                    {
+                        _gather[_gatherCount++] = next;
+                    }
+                    if (_gatherCount == 0) return true;
+                }
+
+                long written = _channel.write(_gather, _gatherIndex, _gatherCount - _gatherIndex);
+                _pendingBytes.addAndGet((int) -written);
+                while (_gatherIndex < _gatherCount && !_gather[_gatherIndex].hasRemaining())
+                {
+                    _gather[_gatherIndex++] = null;
+                }
+                if (_gatherIndex < _gatherCount) return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package biemhTekniker.logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory store of recent entries, kept in columns instead of objects.
+ * <p>
+ * Timestamps, levels, interned source ids and message positions live in
+ * primitive arrays indexed by sequence number; message text is copied into one
+ * shared char arena. Small per-level and per-source rings of sequence numbers
+ * let queries such as "WARN+ from SmartPickingProtocol in the last 10 minutes"
+ * visit only matching rows. An entry is evicted when its row or its message
+ * text is overwritten, whichever happens first.
+ */
+public class LogStore implements ILogListener
+{
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_ARENA_CHARS = 1024 * 1024;
+    private static final int LEVEL_INDEX_SIZE = 1024;
+    private static final int SOURCE_INDEX_SIZE = 512;
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    private static volatile LogStore instance;
+
+    private final int _mask;
+    private final long[] _timestamps;
+    private final byte[] _levels;
+    private final short[] _sourceIds;
+    private final long[] _messageStarts;
+    private final int[] _messageLengths;
+    private final char[] _arena;
+    private final int _maxMessageChars;
+
+    private final Map<String, Short> _sourceIdMap = new HashMap<String, Short>();
+    private final List<String> _sources = new ArrayList<String>();
+    private final List<SeqRing> _sourceIndexes = new ArrayList<SeqRing>();
+    private final SeqRing[] _levelIndexes = new SeqRing[LEVELS.length];
+
+    private long _head = 0;
+    private long _oldest = 0;
+    private long _arenaHead = 0;
+
+    public LogStore(int capacity, int arenaChars)
+    {
+        if (Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        _mask = capacity - 1;
+        _timestamps = new long[capacity];
+        _levels = new byte[capacity];
+        _sourceIds = new short[capacity];
+        _messageStarts = new long[capacity];
+        _messageLengths = new int[capacity];
+        _arena = new char[arenaChars];
+        _maxMessageChars = arenaChars / 8;
+        for (int i = 0; i < _levelIndexes.length; i++)
+        {
+            _levelIndexes[i] = new SeqRing(LEVEL_INDEX_SIZE);
+        }
+    }
+
+    /**
+     * Creates the shared store and registers it with the LogManager.
+     */
+    public static synchronized LogStore install(int capacity, int arenaChars)
+    {
+        if (instance == null)
+        {
+            instance = new LogStore(capacity, arenaChars);
+            LogManager.register(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the installed store, or null if none is running
+     */
+    public static LogStore getInstance()
+    {
+        return instance;
+    }
+
+    @Override
+    public synchronized void onNewLog(LogEntry entry)
+    {
+        String message = entry.getMessage() != null ? entry.getMessage() : "";
+        int length = Math.min(message.length(), _maxMessageChars);
+
+        // Messages are stored contiguously; skip the arena tail if it is too short
+        int offset = (int) (_arenaHead % _arena.length);
+        if (offset + length > _arena.length)
+        {
+            _arenaHead += _arena.length - offset;
+            offset = 0;
+        }
+        message.getChars(0, length, _arena, offset);
+        long start = _arenaHead;
+        _arenaHead += length;
+
+        long seq = _head;
+        int row = (int) seq & _mask;
+        short sourceId = internSource(entry.getSource());
+        _timestamps[row] = entry.getTimestamp();
+        _levels[row] = (byte) entry.getLevel().ordinal();
+        _sourceIds[row] = sourceId;
+        _messageStarts[row] = start;
+        _messageLengths[row] = length;
+        _head = seq + 1;
+
+        _levelIndexes[entry.getLevel().ordinal()].add(seq);
+        _sourceIndexes.get(sourceId).add(seq);
+        evict();
+    }
+
+    /**
+     * Entries at or above {@code minLevel}, from {@code source} (null for any),
+     * not older than {@code sinceMillis}, oldest first. If more than
+     * {@code maxResults} match, the newest ones are returned.
+     */
+    public synchronized List<LogEntry> query(LogLevel minLevel, String source, long sinceMillis, int maxResults)
+    {
+        long first = firstSeqSince(sinceMillis);
+        long[] candidates;
+
+        Short sourceId = (source != null) ? _sourceIdMap.get(source) : null;
+        if (source != null && sourceId == null)
+        {
+            return new ArrayList<LogEntry>();
+        }
+        if (sourceId != null && _sourceIndexes.get(sourceId).covers(first))
+        {
+            candidates = _sourceIndexes.get(sourceId).since(first);
+        } else if (sourceId == null && minLevel.ordinal() > 0 && levelIndexesCover(minLevel, first))
+        {
+            candidates = mergeLevelIndexes(minLevel, first);
+        } else
+        {
+            candidates = null;
+        }
+
+        List<LogEntry> result = new ArrayList<LogEntry>();
+        if (candidates != null)
+        {
+            for (int i = 0; i < candidates.length; i++)
+            {
+                addIfMatching(candidates[i], minLevel, sourceId, sinceMillis, result);
+            }
+        } else
+        {
+            for (long seq = first; seq < _head; seq++)
+            {
+                addIfMatching(seq, minLevel, sourceId, sinceMillis, result);
+            }
+        }
+        return (result.size() > maxResults)
+                ? new ArrayList<LogEntry>(result.subList(result.size() - maxResults, result.size()))
+                : result;
+    }
+
+    public synchronized int size()
+    {
+        return (int) (_head - _oldest);
+    }
+
+    private void addIfMatching(long seq, LogLevel minLevel, Short sourceId, long sinceMillis, List<LogEntry> out)
+    {
+        if (seq < _oldest) return;
+        int row = (int) seq & _mask;
+        if (_levels[row] < minLevel.ordinal()) return;
+        if (sourceId != null && _sourceIds[row] != sourceId) return;
+        if (_timestamps[row] < sinceMillis) return;
+        int offset = (int) (_messageStarts[row] % _arena.length);
+        out.add(new LogEntry(_timestamps[row], LEVELS[_levels[row]], _sources.get(_sourceIds[row]),
+                new String(_arena, offset, _messageLengths[row])));
+    }
+
+    // Binary search over the retained rows; timestamps are non-decreasing in dispatch order
+    private long firstSeqSince(long sinceMillis)
+    {
+        long lo = _oldest;
+        long hi = _head;
+        while (lo < hi)
+        {
+            long mid = (lo + hi) >>> 1;
+            if (_timestamps[(int) mid & _mask] < sinceMillis)
+            {
+                lo = mid + 1;
+            } else
+            {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private boolean levelIndexesCover(LogLevel minLevel, long first)
+    {
+        for (int i = minLevel.ordinal(); i < LEVELS.length; i++)
+        {
+            if (!_levelIndexes[i].covers(first)) return false;
+        }
+        return true;
+    }
+
+    private long[] mergeLevelIndexes(LogLevel minLevel, long first)
+    {
+        long[][] parts = new long[LEVELS.length][];
+        int total = 0;
+        for (int i = minLevel.ordinal(); i < LEVELS.length; i++)
+        {
+            parts[i] = _levelIndexes[i].since(first);
+            total += parts[i].length;
+        }
+        long[] merged = new long[total];
+        int n = 0;
+        for (int i = minLevel.ordinal(); i < LEVELS.length; i++)
+        {
+            System.arraycopy(parts[i], 0, merged, n, parts[i].length);
+            n += parts[i].length;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private void evict()
+    {
+        long capacityLimit = _head - (_mask + 1);
+        long arenaLimit = _arenaHead - _arena.length;
+        while (_oldest < _head
+                && (_oldest < capacityLimit || _messageStarts[(int) _oldest & _mask] < arenaLimit))
+        {
+            _oldest++;
+        }
+    }
+
+    private short internSource(String source)
+    {
+        String key = (source != null) ? source : "";
+        Short id = _sourceIdMap.get(key);
+        if (id != null) return id;
+        short newId = (short) _sources.size();
+        _sourceIdMap.put(key, newId);
+        _sources.add(key);
+        _sourceIndexes.add(new SeqRing(SOURCE_INDEX_SIZE));
+        return newId;
+    }
+
+    /**
+     * Fixed-size ring of the most recent sequence numbers of one level or source.
+     */
+    private static final class SeqRing
+    {
+        private final long[] _seqs;
+        private long _count = 0;
+
+        SeqRing(int size)
+        {
+            _seqs = new long[size];
+        }
+
+        void add(long seq)
+        {
+            _seqs[(int) (_count % _seqs.length)] = seq;
+            _count++;
+        }
+
+        // True if no sequence at or after 'first' has been pushed out of the ring
+        boolean covers(long first)
+        {
+            return _count <= _seqs.length || _seqs[(int) (_count % _seqs.length)] <= first;
+        }
+
+        long[] since(long first)
+        {
+            int retained = (int) Math.min(_count, _seqs.length);
+            int n = 0;
+            long[] tmp = new long[retained];
+            for (long i = _count - retained; i < _count; i++)
+            {
+                long seq = _seqs[(int) (i % _seqs.length)];
+                if (seq >= first) tmp[n++] = seq;
+            }
+            return Arrays.copyOf(tmp, n);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package biemhTekniker.logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Suppression stage between the dispatcher and the listeners.
+ * <p>
+ * Identical consecutive messages of a source are collapsed into one summary
+ * line ({@code "... [repeated 523 times in 60 s]"}), and each source may be
+ * capped to a number of entries per second. Rules are looked up per source
+ * and level, falling back to the {@code "*"} rules. By default WARN and ERROR
+ * are only collapsed, never rate limited. All state except the rule
+ * table is confined to the dispatcher thread, so no locking is involved.
+ * The flight recorder still sees every call because it records upstream.
+ */
+public final class LogThrottle implements ILogListener
+{
+    public static final String ANY_SOURCE = "*";
+    public static final int DEFAULT_MAX_PER_SECOND = 100;
+    private static final long REPEAT_REPORT_INTERVAL_MS = 60000;
+    private static final int LEVEL_COUNT = LogLevel.values().length;
+
+    private final ILogListener _downstream;
+    private final ConcurrentMap<String, Rule[]> _rules = new ConcurrentHashMap<String, Rule[]>();
+    private final Map<String, SourceState> _states = new HashMap<String, SourceState>();
+
+    LogThrottle(ILogListener downstream)
+    {
+        this._downstream = downstream;
+        setDefaultRule(DEFAULT_MAX_PER_SECOND, true);
+    }
+
+    /**
+     * Sets the {@code "*"} rules: the cap applies to DEBUG and INFO only, so
+     * warnings and errors are never lost to the rate limit.
+     */
+    public synchronized void setDefaultRule(int maxPerSecond, boolean collapseRepeats)
+    {
+        setRule(ANY_SOURCE, null, 0, collapseRepeats);
+        setRule(ANY_SOURCE, LogLevel.DEBUG, maxPerSecond, collapseRepeats);
+        setRule(ANY_SOURCE, LogLevel.INFO, maxPerSecond, collapseRepeats);
+    }
+
+    /**
+     * Configures throttling for a source ({@code "*"} for the default) and a
+     * level ({@code null} for all levels).
+     *
+     * @param maxPerSecond entries per second and source, 0 for no cap
+     * @param collapseRepeats whether identical consecutive messages are collapsed
+     */
+    public synchronized void setRule(String source, LogLevel level, int maxPerSecond, boolean collapseRepeats)
+    {
+        Rule[] existing = _rules.get(source);
+        Rule[] rules = (existing != null) ? existing.clone() : new Rule[LEVEL_COUNT];
+        Rule rule = new Rule(maxPerSecond, collapseRepeats);
+        for (int i = 0; i < LEVEL_COUNT; i++)
+        {
+            if (level == null || level.ordinal() == i)
+            {
+                rules[i] = rule;
+            }
+        }
+        _rules.put(source, rules);
+    }
+
+    /**
+     * Removes the rules of a source so it falls back to the default rules.
+     */
+    public synchronized void clearRule(String source)
+    {
+        if (!ANY_SOURCE.equals(source))
+        {
+            _rules.remove(source);
+        }
+    }
+
+    /**
+     * Describes the effective rule of a source for one level, or for every
+     * level if {@code level} is null.
+     */
+    public String describeRule(String source, LogLevel level)
+    {
+        if (level != null)
+        {
+            return source + " " + level + ": " + describe(ruleFor(source, level));
+        }
+        StringBuilder sb = new StringBuilder(source);
+        for (LogLevel each : LogLevel.values())
+        {
+            sb.append(each.ordinal() == 0 ? " " : "; ").append(each).append(": ").append(describe(ruleFor(source, each)));
+        }
+        return sb.toString();
+    }
+
+    private static String describe(Rule rule)
+    {
+        return (rule._maxPerSecond > 0 ? rule._maxPerSecond + "/s" : "no cap")
+                + ", repeats " + (rule._collapseRepeats ? "collapsed" : "kept");
+    }
+
+    @Override
+    public void onNewLog(LogEntry entry)
+    {
+        String source = entry.getSource();
+        SourceState state = _states.get(source);
+        if (state == null)
+        {
+            state = new SourceState();
+            _states.put(source, state);
+        }
+        Rule rule = ruleFor(source, entry.getLevel());
+        long now = entry.getTimestamp();
+
+        if (rule._collapseRepeats && state.isRepeatOf(entry))
+        {
+            if (state._repeats == 0) state._repeatStart = now;
+            state._repeats++;
+            state._repeatEnd = now;
+            if (now - state._repeatStart >= REPEAT_REPORT_INTERVAL_MS) flushRepeats(source, state, now);
+            return;
+        }
+        flushRepeats(source, state, now);
+        state._lastLevel = entry.getLevel();
+        state._lastMessage = entry.getMessage();
+
+        if (rule._maxPerSecond > 0)
+        {
+            if (now - state._windowStart >= 1000)
+            {
+                flushSuppressed(source, state, now);
+                state._windowStart = now;
+                state._windowCount = 0;
+            }
+            if (state._windowCount >= rule._maxPerSecond)
+            {
+                state._suppressed++;
+                return;
+            }
+            state._windowCount++;
+        }
+        _downstream.onNewLog(entry);
+    }
+
+    /**
+     * Emits pending summaries that are due. Called by the dispatcher when idle.
+     */
+    void tick()
+    {
+        if (_states.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, SourceState> e : _states.entrySet())
+        {
+            SourceState state = e.getValue();
+            if (state._repeats > 0 && now - state._repeatStart >= REPEAT_REPORT_INTERVAL_MS)
+            {
+                flushRepeats(e.getKey(), state, now);
+            }
+            if (state._suppressed > 0 && now - state._windowStart >= 1000)
+            {
+                flushSuppressed(e.getKey(), state, now);
+            }
+        }
+    }
+
+    private void flushRepeats(String source, SourceState state, long now)
+    {
+        if (state._repeats == 0) return;
+        long seconds = Math.max(1, (state._repeatEnd - state._repeatStart + 999) / 1000);
+        _downstream.onNewLog(new LogEntry(now, state._lastLevel, source,
+                state._lastMessage + " [repeated " + state._repeats + " times in " + seconds + " s]"));
+        state._repeats = 0;
+    }
+
+    private void flushSuppressed(String source, SourceState state, long now)
+    {
+        if (state._suppressed == 0) return;
+        _downstream.onNewLog(new LogEntry(now, LogLevel.WARN, source,
+                state._suppressed + " entries suppressed by rate limit"));
+        state._suppressed = 0;
+    }
+
+    private Rule ruleFor(String source, LogLevel level)
+    {
+        // LogEntry allows a null source; it follows the default rules
+        Rule[] rules = (source != null) ? _rules.get(source) : null;
+        Rule rule = (rules != null) ? rules[level.ordinal()] : null;
+        return (rule != null) ? rule : _rules.get(ANY_SOURCE)[level.ordinal()];
+    }
+
+    private static final class Rule
+    {
+        final int _maxPerSecond;
+        final boolean _collapseRepeats;
+
+        Rule(int maxPerSecond, boolean collapseRepeats)
+        {
+            this._maxPerSecond = maxPerSecond;
+            this._collapseRepeats = collapseRepeats;
+        }
+    }
+
+    private static final class SourceState
+    {
+        LogLevel _lastLevel;
+        String _lastMessage;
+        int _repeats;
+        long _repeatStart;
+        long _repeatEnd;
+        long _windowStart;
+        int _windowCount;
+        int _suppressed;
+
+        boolean isRepeatOf(LogEntry entry)
+        {
+            return _lastMessage != null && entry.getLevel() == _lastLevel
+                    && _lastMessage.equals(entry.getMessage());
+        }
+    }
+}
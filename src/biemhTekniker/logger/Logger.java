@@ -1,31 +1,122 @@
 package biemhTekniker.logger;
 
+/**
+ * Logging front end. Besides the plain message methods it offers template
+ * variants ({@link String#format} syntax) that take up to three arguments.
+ * They check the source's level (see {@link LoggerRegistry}) first and defer
+ * the formatting to the dispatcher thread, so a disabled level costs no
+ * allocation at the call site.
+ * Integral arguments bind to the double variants and can still be
+ * formatted with {@code %d}.
+ */
 public class Logger {
     private final String _source;
+    // Ordinal of the lowest enabled level, maintained by LoggerRegistry
+    private volatile int _threshold;
 
-    // The constructor is private; we use the static factory method below
-    private Logger(String source) {
+    // Instances are created and cached by LoggerRegistry
+    Logger(String source, LogLevel level) {
         this._source = source;
+        this._threshold = level.ordinal();
     }
 
     // This mimics how professional Java loggers are created
     public static Logger getLogger(Class<?> clazz) {
-        return new Logger(clazz.getSimpleName());
+        return LoggerRegistry.getLogger(clazz);
+    }
+
+    public String getSource() {
+        return _source;
+    }
+
+    public LogLevel getLevel() {
+        return LogLevel.values()[_threshold];
+    }
+
+    void setLevel(LogLevel level) {
+        _threshold = level.ordinal();
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return level.ordinal() >= _threshold;
+    }
+
+    public boolean isDebugEnabled() {
+        return LogLevel.DEBUG.ordinal() >= _threshold;
+    }
+
+    public boolean isInfoEnabled() {
+        return LogLevel.INFO.ordinal() >= _threshold;
     }
 
     public void info(String msg) {
-        LogManager.broadcast(new LogEntry(LogLevel.INFO, _source, msg));
+        log(LogLevel.INFO, msg);
     }
 
     public void warn(String msg) {
-        LogManager.broadcast(new LogEntry(LogLevel.WARN, _source, msg));
+        log(LogLevel.WARN, msg);
     }
 
     public void error(String msg) {
-        LogManager.broadcast(new LogEntry(LogLevel.ERROR, _source, msg));
+        log(LogLevel.ERROR, msg);
     }
 
     public void debug(String msg) {
-        LogManager.broadcast(new LogEntry(LogLevel.DEBUG, _source, msg));
+        log(LogLevel.DEBUG, msg);
+    }
+
+    // --- Deferred-format variants ---
+
+    public void info(String template, double a) { log(LogLevel.INFO, template, 1, a, 0, 0); }
+    public void info(String template, double a, double b) { log(LogLevel.INFO, template, 2, a, b, 0); }
+    public void info(String template, double a, double b, double c) { log(LogLevel.INFO, template, 3, a, b, c); }
+    public void info(String template, Object a) { log(LogLevel.INFO, template, 1, a, null, null); }
+    public void info(String template, Object a, Object b) { log(LogLevel.INFO, template, 2, a, b, null); }
+    public void info(String template, Object a, Object b, Object c) { log(LogLevel.INFO, template, 3, a, b, c); }
+
+    public void warn(String template, double a) { log(LogLevel.WARN, template, 1, a, 0, 0); }
+    public void warn(String template, double a, double b) { log(LogLevel.WARN, template, 2, a, b, 0); }
+    public void warn(String template, double a, double b, double c) { log(LogLevel.WARN, template, 3, a, b, c); }
+    public void warn(String template, Object a) { log(LogLevel.WARN, template, 1, a, null, null); }
+    public void warn(String template, Object a, Object b) { log(LogLevel.WARN, template, 2, a, b, null); }
+    public void warn(String template, Object a, Object b, Object c) { log(LogLevel.WARN, template, 3, a, b, c); }
+
+    public void error(String template, double a) { log(LogLevel.ERROR, template, 1, a, 0, 0); }
+    public void error(String template, double a, double b) { log(LogLevel.ERROR, template, 2, a, b, 0); }
+    public void error(String template, double a, double b, double c) { log(LogLevel.ERROR, template, 3, a, b, c); }
+    public void error(String template, Object a) { log(LogLevel.ERROR, template, 1, a, null, null); }
+    public void error(String template, Object a, Object b) { log(LogLevel.ERROR, template, 2, a, b, null); }
+    public void error(String template, Object a, Object b, Object c) { log(LogLevel.ERROR, template, 3, a, b, c); }
+
+    public void debug(String template, double a) { log(LogLevel.DEBUG, template, 1, a, 0, 0); }
+    public void debug(String template, double a, double b) { log(LogLevel.DEBUG, template, 2, a, b, 0); }
+    public void debug(String template, double a, double b, double c) { log(LogLevel.DEBUG, template, 3, a, b, c); }
+    public void debug(String template, Object a) { log(LogLevel.DEBUG, template, 1, a, null, null); }
+    public void debug(String template, Object a, Object b) { log(LogLevel.DEBUG, template, 2, a, b, null); }
+    public void debug(String template, Object a, Object b, Object c) { log(LogLevel.DEBUG, template, 3, a, b, c); }
+
+    // Every call goes to the flight recorder, even below the source level
+    private void log(LogLevel level, String msg) {
+        long now = System.currentTimeMillis();
+        FlightRecorder.record(now, level, _source, msg);
+        if (level.ordinal() >= _threshold) {
+            LogManager.publish(now, level, _source, msg);
+        }
+    }
+
+    private void log(LogLevel level, String template, int argCount, double a, double b, double c) {
+        long now = System.currentTimeMillis();
+        FlightRecorder.record(now, level, _source, template, argCount, a, b, c);
+        if (level.ordinal() >= _threshold) {
+            LogManager.publish(now, level, _source, template, argCount, a, b, c);
+        }
+    }
+
+    private void log(LogLevel level, String template, int argCount, Object a, Object b, Object c) {
+        long now = System.currentTimeMillis();
+        FlightRecorder.record(now, level, _source, template, argCount, a, b, c);
+        if (level.ordinal() >= _threshold) {
+            LogManager.publish(now, level, _source, template, argCount, a, b, c);
+        }
     }
-}
\ No newline at end of file
+}
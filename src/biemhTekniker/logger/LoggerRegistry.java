@@ -0,0 +1,116 @@
+package biemhTekniker.logger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches one {@link Logger} per class and owns the runtime level table.
+ * <p>
+ * Each source (the simple class name) has an effective level: its own
+ * override if one is set, otherwise the default level. The effective level
+ * is pushed into the cached loggers, so the check on the logging path is a
+ * single volatile read.
+ */
+public final class LoggerRegistry
+{
+    private static final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<String, Logger>();
+    private static final ConcurrentMap<String, LogLevel> overrides = new ConcurrentHashMap<String, LogLevel>();
+    private static volatile LogLevel defaultLevel = LogLevel.DEBUG;
+
+    private LoggerRegistry() {}
+
+    public static Logger getLogger(Class<?> clazz)
+    {
+        Logger logger = loggers.get(clazz.getName());
+        return logger != null ? logger : createLogger(clazz);
+    }
+
+    /**
+     * Sets the level of one source, e.g. DEBUG for SmartPickingProtocol only.
+     */
+    public static synchronized void setLevel(String source, LogLevel level)
+    {
+        overrides.put(source, level);
+        apply();
+    }
+
+    /**
+     * Removes the override of a source so it follows the default level again.
+     */
+    public static synchronized void clearLevel(String source)
+    {
+        overrides.remove(source);
+        apply();
+    }
+
+    public static synchronized void setDefaultLevel(LogLevel level)
+    {
+        defaultLevel = level;
+        apply();
+    }
+
+    public static LogLevel getDefaultLevel()
+    {
+        return defaultLevel;
+    }
+
+    public static LogLevel getEffectiveLevel(String source)
+    {
+        return effectiveLevel(source);
+    }
+
+    /**
+     * Whether a logger exists for the source. Loggers are created when their
+     * class is first loaded, so a valid source can still be unknown early on.
+     */
+    public static boolean isKnownSource(String source)
+    {
+        for (Logger logger : loggers.values())
+        {
+            if (logger.getSource().equals(source)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Effective level of every source that has a logger, sorted by source.
+     */
+    public static Map<String, LogLevel> getLevels()
+    {
+        Map<String, LogLevel> levels = new TreeMap<String, LogLevel>();
+        for (Logger logger : loggers.values())
+        {
+            levels.put(logger.getSource(), logger.getLevel());
+        }
+        return levels;
+    }
+
+    // Synchronized with the setters so a new logger cannot miss a level change
+    private static synchronized Logger createLogger(Class<?> clazz)
+    {
+        Logger logger = loggers.get(clazz.getName());
+        if (logger == null)
+        {
+            String source = clazz.getSimpleName();
+            logger = new Logger(source, effectiveLevel(source));
+            loggers.put(clazz.getName(), logger);
+        }
+        return logger;
+    }
+
+    private static LogLevel effectiveLevel(String source)
+    {
+        LogLevel level = overrides.get(source);
+        return level != null ? level : defaultLevel;
+    }
+
+    private static void apply()
+    {
+        for (Logger logger : loggers.values())
+        {
+            logger.setLevel(effectiveLevel(logger.getSource()));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package biemhTekniker.logger;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 
 public class NetworkListener implements ILogListener
@@ -16,7 +17,14 @@ public class NetworkListener implements ILogListener
     {
         if (_out != null)
         {
-            _out.println(entry);
+            try
+            {
+                entry.appendTo(_out);
+            } catch (IOException ignored)
+            {
+                // PrintWriter reports errors through checkError() instead
+            }
+            _out.println();
         }
     }
 }
@@ -0,0 +1,85 @@
+package biemhTekniker.logger;
+
+import java.io.IOException;
+import java.util.TimeZone;
+
+/**
+ * Renders epoch milliseconds as local {@code HH:mm:ss.SSS}.
+ * <p>
+ * The {@code HH:mm:ss.} prefix is computed once per second and kept in an
+ * immutable holder, so rendering is allocation-free in the common case and
+ * safe to call from any thread.
+ */
+final class TimestampFormat
+{
+    private static volatile SecondPrefix cached = new SecondPrefix(Long.MIN_VALUE, 0);
+
+    private TimestampFormat() {}
+
+    static void appendTo(long millis, StringBuilder sb)
+    {
+        SecondPrefix prefix = prefixFor(millis);
+        sb.append(prefix.chars);
+        int ms = (int) (millis - prefix.second * 1000L);
+        sb.append((char) ('0' + ms / 100));
+        sb.append((char) ('0' + (ms / 10) % 10));
+        sb.append((char) ('0' + ms % 10));
+    }
+
+    static void appendTo(long millis, Appendable out) throws IOException
+    {
+        SecondPrefix prefix = prefixFor(millis);
+        char[] chars = prefix.chars;
+        for (int i = 0; i < chars.length; i++)
+        {
+            out.append(chars[i]);
+        }
+        int ms = (int) (millis - prefix.second * 1000L);
+        out.append((char) ('0' + ms / 100));
+        out.append((char) ('0' + (ms / 10) % 10));
+        out.append((char) ('0' + ms % 10));
+    }
+
+    private static SecondPrefix prefixFor(long millis)
+    {
+        long second = floorDiv(millis, 1000L);
+        SecondPrefix prefix = cached;
+        if (prefix.second != second)
+        {
+            prefix = new SecondPrefix(second, TimeZone.getDefault().getOffset(millis));
+            cached = prefix;
+        }
+        return prefix;
+    }
+
+    private static long floorDiv(long x, long y)
+    {
+        long q = x / y;
+        return (x % y != 0 && (x < 0)) ? q - 1 : q;
+    }
+
+    private static final class SecondPrefix
+    {
+        final long second;
+        final char[] chars = new char[9];
+
+        SecondPrefix(long second, int zoneOffsetMillis)
+        {
+            this.second = second;
+            long local = second + zoneOffsetMillis / 1000;
+            int secondOfDay = (int) (((local % 86400L) + 86400L) % 86400L);
+            put2(0, secondOfDay / 3600);
+            chars[2] = ':';
+            put2(3, (secondOfDay / 60) % 60);
+            chars[5] = ':';
+            put2(6, secondOfDay % 60);
+            chars[8] = '.';
+        }
+
+        private void put2(int offset, int value)
+        {
+            chars[offset] = (char) ('0' + value / 10);
+            chars[offset + 1] = (char) ('0' + value % 10);
+        }
+    }
+}
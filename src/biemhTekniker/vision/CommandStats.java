@@ -0,0 +1,149 @@
+package biemhTekniker.vision;
+
+import biemhTekniker.vision.SmartPickingProtocol.Command;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and outcome statistics per vision {@link Command}, since startup
+ * and over a rolling window.
+ * <p>
+ * The window is a ring of {@link #WINDOW_SLOTS} histograms, each covering a
+ * fixed slice of time; a slot is cleared when it is reused. Recording never
+ * locks. If two threads record exactly when a slot rolls over, one sample may
+ * be lost, which only affects the windowed numbers.
+ */
+public class CommandStats {
+
+    public static final int WINDOW_SLOTS = 6;
+    public static final long DEFAULT_SLOT_MILLIS = 10000;
+
+    private static final CommandStats INSTANCE = new CommandStats(DEFAULT_SLOT_MILLIS);
+
+    private final long _slotMillis;
+    private final Map<Command, Entry> _entries = new EnumMap<Command, Entry>(Command.class);
+
+    CommandStats(long slotMillis) {
+        this._slotMillis = slotMillis;
+        for (Command cmd : Command.values()) {
+            _entries.put(cmd, new Entry());
+        }
+    }
+
+    public static CommandStats get() {
+        return INSTANCE;
+    }
+
+    public long getWindowMillis() {
+        return _slotMillis * WINDOW_SLOTS;
+    }
+
+    public void record(Command cmd, long micros, boolean success) {
+        Entry entry = _entries.get(cmd);
+        entry._total.record(micros);
+        (success ? entry._ok : entry._failed).incrementAndGet();
+
+        long epoch = System.currentTimeMillis() / _slotMillis;
+        Slot slot = entry._slots[(int) (epoch % WINDOW_SLOTS)];
+        long slotEpoch = slot._epoch.get();
+        if (slotEpoch != epoch && slot._epoch.compareAndSet(slotEpoch, epoch)) {
+            slot.clear();
+        }
+        slot._histogram.record(micros);
+        (success ? slot._ok : slot._failed).incrementAndGet();
+    }
+
+    /**
+     * One line with the windowed numbers of every command that ran in the
+     * window, or null if none did.
+     */
+    public String summaryLine() {
+        StringBuilder sb = new StringBuilder();
+        Window window = new Window();
+        long epoch = System.currentTimeMillis() / _slotMillis;
+        for (Map.Entry<Command, Entry> e : _entries.entrySet()) {
+            window.collect(e.getValue(), epoch);
+            if (window._histogram.getCount() == 0) continue;
+            if (sb.length() > 0) sb.append("; ");
+            append(sb, e.getKey(), window._ok, window._failed, window._histogram);
+        }
+        if (sb.length() == 0) return null;
+        return "Vision latency (last " + getWindowMillis() / 1000 + " s): " + sb;
+    }
+
+    /**
+     * Table of all commands that ran since startup, with totals and window.
+     */
+    public String describe(String newline) {
+        StringBuilder sb = new StringBuilder();
+        Window window = new Window();
+        long epoch = System.currentTimeMillis() / _slotMillis;
+        for (Map.Entry<Command, Entry> e : _entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry._total.getCount() == 0) continue;
+            window.collect(entry, epoch);
+            if (sb.length() > 0) sb.append(newline);
+            sb.append("total  ");
+            append(sb, e.getKey(), entry._ok.get(), entry._failed.get(), entry._total);
+            sb.append(newline).append("last ").append(getWindowMillis() / 1000).append("s ");
+            append(sb, e.getKey(), window._ok, window._failed, window._histogram);
+        }
+        return (sb.length() > 0) ? sb.toString() : "No vision commands recorded yet";
+    }
+
+    private static void append(StringBuilder sb, Command cmd, long ok, long failed, LatencyHistogram h) {
+        sb.append(cmd).append(" n=").append(h.getCount())
+                .append(" ok=").append(ok).append(" fail=").append(failed)
+                .append(String.format(" p50=%.1f p90=%.1f p99=%.1f max=%.1f ms",
+                        h.getPercentileMicros(0.50) / 1000.0, h.getPercentileMicros(0.90) / 1000.0,
+                        h.getPercentileMicros(0.99) / 1000.0, h.getMaxMicros() / 1000.0));
+    }
+
+    private static final class Entry {
+        final LatencyHistogram _total = new LatencyHistogram();
+        final AtomicLong _ok = new AtomicLong(0);
+        final AtomicLong _failed = new AtomicLong(0);
+        final Slot[] _slots = new Slot[WINDOW_SLOTS];
+
+        Entry() {
+            for (int i = 0; i < WINDOW_SLOTS; i++) {
+                _slots[i] = new Slot();
+            }
+        }
+    }
+
+    private static final class Slot {
+        final AtomicLong _epoch = new AtomicLong(-1);
+        final LatencyHistogram _histogram = new LatencyHistogram();
+        final AtomicLong _ok = new AtomicLong(0);
+        final AtomicLong _failed = new AtomicLong(0);
+
+        void clear() {
+            _histogram.reset();
+            _ok.set(0);
+            _failed.set(0);
+        }
+    }
+
+    // Read-side merge of the slots that are still inside the window
+    private static final class Window {
+        final LatencyHistogram _histogram = new LatencyHistogram();
+        long _ok;
+        long _failed;
+
+        void collect(Entry entry, long epoch) {
+            _histogram.reset();
+            _ok = 0;
+            _failed = 0;
+            for (Slot slot : entry._slots) {
+                long slotEpoch = slot._epoch.get();
+                if (slotEpoch < 0 || epoch - slotEpoch >= WINDOW_SLOTS) continue;
+                _histogram.add(slot._histogram);
+                _ok += slot._ok.get();
+                _failed += slot._failed.get();
+            }
+        }
+    }
+}
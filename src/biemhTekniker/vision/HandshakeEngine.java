@@ -0,0 +1,235 @@
+package biemhTekniker.vision;
+
+import biemhTekniker.logger.Logger;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the PLC handshake inputs on a dedicated thread and turns level
+ * changes into time-stamped edges.
+ * <p>
+ * The inputs are read every sample period, typically a millisecond, instead
+ * of once per work cycle. An edge updates the sampled state, wakes every
+ * thread blocked in {@link #await} or {@link #awaitEdge}, and is passed to the
+ * registered {@link EdgeHandler}s. A change of input is therefore seen within
+ * one sample period, and the time of the edge is known to that precision.
+ */
+public class HandshakeEngine {
+
+    private static final Logger log = Logger.getLogger(HandshakeEngine.class);
+
+    public enum Input {
+        RUN_MODE,
+        CALIBRATION_MODE,
+        DATA_REQUEST,
+        CALIBRATION_REQUEST
+    }
+
+    /**
+     * Called on the sampling thread for every edge. Keep it short; a slow
+     * handler delays the next sample.
+     */
+    public interface EdgeHandler {
+        void onEdge(Input input, boolean rising, long nanos);
+    }
+
+    private static final Input[] INPUTS = Input.values();
+
+    private final VisionIO _io;
+    private final long _periodNanos;
+    private final Object _lock = new Object();
+    private final CopyOnWriteArrayList<EdgeHandler> _handlers = new CopyOnWriteArrayList<EdgeHandler>();
+    private final long[] _risingNanos = new long[INPUTS.length];
+    private final long[] _fallingNanos = new long[INPUTS.length];
+
+    private volatile int _state;
+    private volatile long _edgeCount;
+    private volatile boolean _running;
+    private Thread _thread;
+    private boolean _failing = false;
+
+    public HandshakeEngine(VisionIO io, long samplePeriodMicros) {
+        this._io = io;
+        this._periodNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(50, samplePeriodMicros));
+    }
+
+    public void addHandler(EdgeHandler handler) {
+        _handlers.add(handler);
+    }
+
+    public void removeHandler(EdgeHandler handler) {
+        _handlers.remove(handler);
+    }
+
+    public synchronized void start() {
+        if (_thread != null) return;
+        try {
+            _state = sample();
+        } catch (RuntimeException e) {
+            // Same as in the loop: keep the last state (all low at first) until a sample succeeds
+            _failing = true;
+            log.warn("Handshake sampling failed: %s", e.getMessage());
+        }
+        _running = true;
+        _thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sampleLoop();
+            }
+        }, "Vision-Handshake");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Stops sampling and wakes all waiters.
+     */
+    public synchronized void stop() {
+        _running = false;
+        if (_thread != null) {
+            LockSupport.unpark(_thread);
+            _thread = null;
+        }
+        synchronized (_lock) {
+            _lock.notifyAll();
+        }
+    }
+
+    public boolean isRunning() {
+        return _running;
+    }
+
+    public long getSamplePeriodMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(_periodNanos);
+    }
+
+    /**
+     * The input level as of the last sample.
+     */
+    public boolean isHigh(Input input) {
+        return (_state & (1 << input.ordinal())) != 0;
+    }
+
+    /**
+     * {@link System#nanoTime()} of the sample that saw the last rising or
+     * falling edge of {@code input}, or 0 if there was none yet.
+     */
+    public long getLastEdgeNanos(Input input, boolean rising) {
+        synchronized (_lock) {
+            return rising ? _risingNanos[input.ordinal()] : _fallingNanos[input.ordinal()];
+        }
+    }
+
+    /**
+     * Number of edges seen so far, for {@link #awaitEdge}.
+     */
+    public long getEdgeCount() {
+        return _edgeCount;
+    }
+
+    /**
+     * Waits until {@code input} has the given level.
+     *
+     * @return false on timeout or when the engine stopped
+     */
+    public boolean await(Input input, boolean high, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (_lock) {
+            while (isHigh(input) != high) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !_running) return false;
+                TimeUnit.NANOSECONDS.timedWait(_lock, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Waits until any edge after {@code seenCount} occurred.
+     *
+     * @return false on timeout or when the engine stopped
+     */
+    public boolean awaitEdge(long seenCount, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (_lock) {
+            while (_edgeCount == seenCount) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !_running) return false;
+                TimeUnit.NANOSECONDS.timedWait(_lock, remaining);
+            }
+            return true;
+        }
+    }
+
+    private void sampleLoop() {
+        long next = System.nanoTime();
+        while (_running) {
+            try {
+                int state = sample();
+                long now = System.nanoTime();
+                int previous = _state;
+                if (state != previous) {
+                    publish(previous, state, now);
+                }
+                if (_failing) {
+                    _failing = false;
+                    log.info("Handshake sampling recovered.");
+                }
+            } catch (RuntimeException e) {
+                // The I/O groups can throw while the controller reconfigures; keep the last state
+                if (!_failing) {
+                    _failing = true;
+                    log.warn("Handshake sampling failed: %s", e.getMessage());
+                }
+            }
+            next += _periodNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else {
+                // Fell behind, e.g. after a GC pause: do not try to catch up
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    private int sample() {
+        int state = 0;
+        if (_io.getRunMode()) state |= 1 << Input.RUN_MODE.ordinal();
+        if (_io.getCalibrationMode()) state |= 1 << Input.CALIBRATION_MODE.ordinal();
+        if (_io.getDataRequest()) state |= 1 << Input.DATA_REQUEST.ordinal();
+        if (_io.getCalibrationRequest()) state |= 1 << Input.CALIBRATION_REQUEST.ordinal();
+        return state;
+    }
+
+    private void publish(int previous, int state, long nanos) {
+        int changed = previous ^ state;
+        synchronized (_lock) {
+            for (Input input : INPUTS) {
+                int bit = 1 << input.ordinal();
+                if ((changed & bit) == 0) continue;
+                if ((state & bit) != 0) {
+                    _risingNanos[input.ordinal()] = nanos;
+                } else {
+                    _fallingNanos[input.ordinal()] = nanos;
+                }
+            }
+            _state = state;
+            _edgeCount++;
+            _lock.notifyAll();
+        }
+        if (_handlers.isEmpty()) return;
+        for (Input input : INPUTS) {
+            int bit = 1 << input.ordinal();
+            if ((changed & bit) == 0) continue;
+            for (EdgeHandler handler : _handlers) {
+                try {
+                    handler.onEdge(input, (state & bit) != 0, nanos);
+                } catch (RuntimeException e) {
+                    log.error("Handshake edge handler failed: %s", e.getMessage());
+                }
+            }
+        }
+    }
+}
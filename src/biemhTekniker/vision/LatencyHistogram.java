@@ -0,0 +1,102 @@
+package biemhTekniker.vision;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory latency histogram with logarithmic buckets in microseconds.
+ * <p>
+ * Each power of two is split into {@link #SUB_BUCKETS} linear buckets, so a
+ * reported percentile is at most 12.5% above the true value. Recording is one
+ * atomic increment plus a CAS on the maximum; readers may see a snapshot that
+ * is a few samples behind, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Values are clamped to 2^36 us (about 19 hours)
+    private static final int MAX_EXPONENT = 36;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong _count = new AtomicLong(0);
+    private final AtomicLong _max = new AtomicLong(0);
+
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        _buckets.incrementAndGet(bucketOf(value));
+        _count.incrementAndGet();
+        long max;
+        while (value > (max = _max.get()) && !_max.compareAndSet(max, value)) {
+            // Retry until the larger value is in or another thread stored a larger one
+        }
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getMaxMicros() {
+        return _max.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return the upper bound of the bucket holding that quantile, 0 if empty
+     */
+    public long getPercentileMicros(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += _buckets.get(i);
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += _buckets.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), _max.get());
+        }
+        return _max.get();
+    }
+
+    /**
+     * Adds the samples of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long n = other._buckets.get(i);
+            if (n != 0) _buckets.addAndGet(i, n);
+        }
+        _count.addAndGet(other._count.get());
+        long otherMax = other._max.get();
+        long max;
+        while (otherMax > (max = _max.get()) && !_max.compareAndSet(max, otherMax)) {
+            // See record()
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            _buckets.set(i, 0);
+        }
+        _count.set(0);
+        _max.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BITS;
+        return ((long) (SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,147 @@
+package biemhTekniker.vision;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of part poses found in one capture. The vision task offers
+ * every candidate after LOCATE_PARTS and takes one per DataRequest, so several
+ * parts cost one capture round.
+ * <p>
+ * {@link #offer} and {@link #poll} must be called from one thread at a time;
+ * today both run on the vision task. The head and tail are still published
+ * with ordered stores, so the queue stays safe if offering and polling are
+ * later split across a producer and a consumer thread.
+ * <p>
+ * Poses are stored in primitive arrays; neither side allocates. Each pose is
+ * tagged with the bin generation it was captured in. {@link #invalidate()}
+ * starts a new generation and may be called from any thread: older poses are
+ * skipped by {@link #poll} instead of being removed, so invalidating never
+ * touches the head or tail.
+ */
+public class PoseQueue {
+
+    /**
+     * Mutable holder filled by {@link #poll(Pose)}.
+     */
+    public static final class Pose {
+        public double x, y, z, rx, ry, rz;
+        public long captureMillis;
+        public long generation;
+    }
+
+    private static final int FIELDS = 6;
+
+    private final int _mask;
+    private final double[] _values;
+    private final long[] _captureMillis;
+    private final long[] _generations;
+    private final AtomicLong _head = new AtomicLong(0);
+    private final AtomicLong _tail = new AtomicLong(0);
+    private final AtomicLong _generation = new AtomicLong(0);
+
+    public PoseQueue(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        _mask = capacity - 1;
+        _values = new double[capacity * FIELDS];
+        _captureMillis = new long[capacity];
+        _generations = new long[capacity];
+    }
+
+    public int capacity() {
+        return _mask + 1;
+    }
+
+    /**
+     * The current bin generation. The producer reads it before capturing and
+     * passes it to {@link #offer}, so a disturbance during the capture discards
+     * the poses found in it.
+     */
+    public long generation() {
+        return _generation.get();
+    }
+
+    /**
+     * Discards all queued poses, e.g. after a failed pick or a bin swap.
+     */
+    public void invalidate() {
+        _generation.incrementAndGet();
+    }
+
+    /**
+     * Queues a pose.
+     *
+     * @return false if the queue is full or the generation is already stale
+     */
+    public boolean offer(double x, double y, double z, double rx, double ry, double rz,
+                         long captureMillis, long generation) {
+        if (generation != _generation.get()) return false;
+        long tail = _tail.get();
+        if (tail - _head.get() > _mask) return false;
+        int slot = (int) tail & _mask;
+        int base = slot * FIELDS;
+        _values[base] = x;
+        _values[base + 1] = y;
+        _values[base + 2] = z;
+        _values[base + 3] = rx;
+        _values[base + 4] = ry;
+        _values[base + 5] = rz;
+        _captureMillis[slot] = captureMillis;
+        _generations[slot] = generation;
+        // Ordered store publishes the slot contents before the new tail
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Takes the next pose. Skips poses of an older generation and poses captured
+     * before {@code notBeforeMillis}.
+     *
+     * @return false if no valid pose is queued
+     */
+    public boolean poll(Pose out, long notBeforeMillis) {
+        long head = _head.get();
+        long tail = _tail.get();
+        long generation = _generation.get();
+        while (head < tail) {
+            int slot = (int) head & _mask;
+            head++;
+            if (_generations[slot] != generation || _captureMillis[slot] < notBeforeMillis) continue;
+            int base = slot * FIELDS;
+            out.x = _values[base];
+            out.y = _values[base + 1];
+            out.z = _values[base + 2];
+            out.rx = _values[base + 3];
+            out.ry = _values[base + 4];
+            out.rz = _values[base + 5];
+            out.captureMillis = _captureMillis[slot];
+            out.generation = _generations[slot];
+            _head.lazySet(head);
+            return true;
+        }
+        _head.lazySet(head);
+        return false;
+    }
+
+    public boolean poll(Pose out) {
+        return poll(out, Long.MIN_VALUE);
+    }
+
+    /**
+     * Number of queued poses of the current generation. Exact only on the polling thread.
+     */
+    public int size() {
+        long generation = _generation.get();
+        long tail = _tail.get();
+        int count = 0;
+        for (long i = _head.get(); i < tail; i++) {
+            if (_generations[(int) i & _mask] == generation) count++;
+        }
+        return count;
+    }
+
+    public boolean isFull() {
+        return _tail.get() - _head.get() > _mask;
+    }
+}
@@ -0,0 +1,53 @@
+package biemhTekniker.vision;
+
+/**
+ * Immutable part pose published through {@link VisionDataBridge}. All six
+ * coordinates always belong to the same part.
+ */
+public final class PoseSnapshot {
+    private final long sequence;
+    private final long captureMillis;
+    private final long publishNanos;
+    private final double x, y, z, rx, ry, rz;
+
+    PoseSnapshot(long sequence, long captureMillis,
+                 double x, double y, double z, double rx, double ry, double rz) {
+        this.sequence = sequence;
+        this.captureMillis = captureMillis;
+        this.publishNanos = System.nanoTime();
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.rx = rx;
+        this.ry = ry;
+        this.rz = rz;
+    }
+
+    /**
+     * Increases by one with every published pose, starting at 1.
+     */
+    public long getSequence() { return sequence; }
+
+    /**
+     * When the image behind this pose was taken.
+     */
+    public long getCaptureMillis() { return captureMillis; }
+
+    /**
+     * {@link System#nanoTime()} at publication, for hand-off latency measurements.
+     */
+    public long getPublishNanos() { return publishNanos; }
+
+    public double getX() { return x; }
+    public double getY() { return y; }
+    public double getZ() { return z; }
+    public double getRx() { return rx; }
+    public double getRy() { return ry; }
+    public double getRz() { return rz; }
+
+    @Override
+    public String toString() {
+        return "Pose#" + sequence + "{x=" + x + ", y=" + y + ", z=" + z
+                + ", rx=" + rx + ", ry=" + ry + ", rz=" + rz + "}";
+    }
+}
@@ -0,0 +1,131 @@
+package biemhTekniker.vision;
+
+import biemhTekniker.logger.Logger;
+
+/**
+ * Tracks which reference (product model) the vision server has loaded and
+ * which one is wanted.
+ * <p>
+ * A changeover is requested from any thread (console, PLC handler) and
+ * carried out by the vision task between DataRequests, while the robot keeps
+ * picking the parts already queued from the previous reference. A reference
+ * is only loaded when it differs from the active one. After a short
+ * disconnect the server is assumed to still hold its reference; if the first
+ * vision round after such a reconnect fails, the reference is loaded again.
+ */
+public class ReferenceManager {
+
+    private static final Logger log = Logger.getLogger(ReferenceManager.class);
+    private static final ReferenceManager INSTANCE = new ReferenceManager();
+
+    public static final long DEFAULT_RELOAD_AFTER_DISCONNECT_MS = 60000;
+
+    private volatile String _requested;
+    private volatile String _active;
+    private volatile long _reloadAfterDisconnectMs = DEFAULT_RELOAD_AFTER_DISCONNECT_MS;
+    private long _disconnectedMillis = -1;
+    private boolean _unverified = false;
+
+    private ReferenceManager() {}
+
+    public static ReferenceManager get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Disconnects longer than this are treated as a possible server restart.
+     */
+    public void setReloadAfterDisconnect(long millis) {
+        _reloadAfterDisconnectMs = millis;
+    }
+
+    /**
+     * Asks for a reference to be loaded at the next opportunity. Thread-safe.
+     */
+    public void requestChangeover(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Reference name is empty");
+        }
+        if (!name.equals(_requested)) {
+            log.info("Changeover to reference %s requested.", name);
+        }
+        _requested = name;
+    }
+
+    public String getRequested() {
+        return _requested;
+    }
+
+    /**
+     * @return the reference the server has loaded, or null if unknown
+     */
+    public String getActive() {
+        return _active;
+    }
+
+    public boolean isChangeoverPending() {
+        String requested = _requested;
+        return requested != null && !requested.equals(_active);
+    }
+
+    // --- Vision task side ---
+
+    /**
+     * Loads the requested reference unless the server already has it.
+     *
+     * @return true if the requested reference is active
+     */
+    boolean ensureLoaded(SmartPickingProtocol protocol) {
+        String requested = _requested;
+        if (requested == null) return false;
+        if (requested.equals(_active)) return true;
+
+        String previous = _active;
+        long start = System.nanoTime();
+        if (!protocol.loadReference(requested)) {
+            log.error("Loading reference %s failed.", requested);
+            _active = null;
+            return false;
+        }
+        _active = requested;
+        _unverified = false;
+        if (previous != null) {
+            log.info("Changeover %s -> %s took %.0f ms.", previous, requested, (System.nanoTime() - start) / 1e6);
+        } else {
+            log.info("Loaded reference %s in %.0f ms.", requested, (System.nanoTime() - start) / 1e6);
+        }
+        return true;
+    }
+
+    void onDisconnected() {
+        if (_disconnectedMillis < 0) {
+            _disconnectedMillis = System.currentTimeMillis();
+        }
+    }
+
+    void onConnected() {
+        if (_disconnectedMillis < 0) return;
+        long downMillis = System.currentTimeMillis() - _disconnectedMillis;
+        _disconnectedMillis = -1;
+        if (_active == null) return;
+        if (downMillis > _reloadAfterDisconnectMs) {
+            log.info("Link was down %d ms, reloading reference %s.", downMillis, _active);
+            _active = null;
+        } else {
+            _unverified = true;
+        }
+    }
+
+    /**
+     * Reports the outcome of a vision round. A failure right after a reconnect
+     * that skipped the reload forces the reload.
+     */
+    void onVisionRound(boolean success) {
+        if (!_unverified) return;
+        _unverified = false;
+        if (!success) {
+            log.warn("Vision round failed after reconnect, reloading reference %s.", _active);
+            _active = null;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package biemhTekniker.vision;
 
 import biemhTekniker.logger.Logger;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Communication protocol for the SmartPicking system.
@@ -9,29 +13,58 @@ import biemhTekniker.logger.Logger;
 public class SmartPickingProtocol {
 
     private static final Logger log = Logger.getLogger(SmartPickingProtocol.class);
+    private static final long ABORT_POLL_MS = 20;
+
     private final VisionSocketClient _client;
+    private final Map<Command, Long> _timeouts = new EnumMap<Command, Long>(Command.class);
+    private final VisionResult _result = new VisionResult();
 
     /**
-     * Enum mapping English command names to their respective protocol codes.
+     * Enum mapping English command names to their respective protocol codes,
+     * with the time each command may take by default. Image processing
+     * commands are slow, position queries only read a result.
      */
     public enum Command {
-        LOAD_REFERENCE("15"),
-        SET_AUTO_MODE("101"),
-        SET_CALIB_MODE("102"),
-        CAPTURE_DATA("2"),
-        LOCATE_CONTAINER("3"),
-        GET_CONTAINER_POS("8"),
-        LOCATE_PARTS("4"),
-        GET_PART_POS("9"),
-        GET_NEXT_PART_POS("11");
+        LOAD_REFERENCE("15", 10000),
+        SET_AUTO_MODE("101", 3000),
+        SET_CALIB_MODE("102", 3000),
+        CAPTURE_DATA("2", 8000),
+        LOCATE_CONTAINER("3", 8000),
+        GET_CONTAINER_POS("8", 2000),
+        LOCATE_PARTS("4", 10000),
+        GET_PART_POS("9", 2000),
+        GET_NEXT_PART_POS("11", 2000);
 
         private final String code;
-        Command(String code) { this.code = code; }
+        private final long defaultTimeoutMs;
+        Command(String code, long defaultTimeoutMs) {
+            this.code = code;
+            this.defaultTimeoutMs = defaultTimeoutMs;
+        }
         public String getCode() { return code; }
+        public long getDefaultTimeoutMs() { return defaultTimeoutMs; }
+    }
+
+    /**
+     * Polled while a command is in flight; returning true cancels it.
+     */
+    public interface AbortCondition {
+        boolean shouldAbort();
     }
 
     public SmartPickingProtocol(VisionSocketClient client) {
         this._client = client;
+        for (Command cmd : Command.values()) {
+            _timeouts.put(cmd, cmd.getDefaultTimeoutMs());
+        }
+    }
+
+    public void setTimeout(Command cmd, long timeoutMs) {
+        _timeouts.put(cmd, timeoutMs);
+    }
+
+    public long getTimeout(Command cmd) {
+        return _timeouts.get(cmd);
     }
 
     /**
@@ -40,7 +73,7 @@ public class SmartPickingProtocol {
      */
     public boolean loadReference(String name) {
         execute(Command.LOAD_REFERENCE, name);
-        _client.sendAndReceive("19"); // Internal cleanup/reset command
+        _client.exchange("19", getTimeout(Command.LOAD_REFERENCE)); // Internal cleanup/reset command
         VisionResult res = execute(Command.LOAD_REFERENCE, name);
         return res.isSuccess();
     }
@@ -61,17 +94,72 @@ public class SmartPickingProtocol {
     }
 
     public VisionResult execute(Command cmd, String args) {
+        return execute(cmd, args, null);
+    }
+
+    /**
+     * Sends a command without waiting for the reply.
+     */
+    public VisionRequest send(Command cmd, String args) {
+        return send(cmd, args, getTimeout(cmd));
+    }
+
+    public VisionRequest send(Command cmd, String args, long timeoutMs) {
         String message = cmd.getCode();
         if (args != null && !args.isEmpty()) {
             message += ";" + args;
         }
-        log.debug("Sending " + message + " to cam.");
-        String rawResponse = _client.sendAndReceive(message);
-        VisionResult result = new VisionResult(rawResponse, cmd);
-        log.debug(result.toString());
+        log.debug("Sending %s to cam.", message);
+        return _client.send(message, timeoutMs, null);
+    }
+
+    /**
+     * Runs a command and waits for its reply, its deadline, or the abort condition.
+     * The returned result is reused by the next call on this protocol.
+     */
+    public VisionResult execute(Command cmd, String args, AbortCondition abort) {
+        VisionFrame frame = null;
+        VisionRequest request = null;
+        long started = System.nanoTime();
+        if (_client.isConnected()) {
+            request = send(cmd, args);
+            try {
+                while (!request.await(ABORT_POLL_MS, TimeUnit.MILLISECONDS)) {
+                    if (abort != null && abort.shouldAbort() && request.cancel()) {
+                        log.info("Command %s aborted.", cmd);
+                        break;
+                    }
+                }
+                frame = request.get();
+            } catch (InterruptedException e) {
+                request.cancel();
+                Thread.currentThread().interrupt();
+            }
+            if (!request.isSuccess()) {
+                log.debug("Command %s ended %s: %s", cmd, request.getState(), request.getFailure());
+            }
+            SpanRecorder spans = SpanRecorder.getInstance();
+            if (spans != null) {
+                spans.record(SpanRecorder.Phase.COMMAND, cmd.ordinal(), started, System.nanoTime());
+            }
+        }
+        // The frame is reused by the next exchange, so only keep a copy when it will be logged
+        VisionResult result = _result;
+        result.parse(frame, cmd, log.isDebugEnabled());
+        if (log.isDebugEnabled()) {
+            // _result is reused by the next command; format it now, not on the dispatcher thread
+            log.debug(result.toString());
+        }
 
-        if (!result.isSuccess()) {
-            log.warn("Command " + cmd + " failed or returned no data.");
+        if (result.getMalformedCount() > 0) {
+            log.warn("Reply to %s has %s malformed field(s), first at index %s.", cmd,
+                    result.getMalformedCount(), result.getFirstMalformedField());
+        } else if (!result.isSuccess() && !result.isEndOfList()) {
+            log.warn("Command %s failed or returned no data.", cmd);
+        }
+        // Aborted commands say nothing about the vision system's speed
+        if (request != null && request.isDone() && request.getState() != VisionRequest.State.CANCELLED) {
+            CommandStats.get().record(cmd, request.getElapsedNanos() / 1000, result.isSuccess() || result.isEndOfList());
         }
 
         return result;
@@ -79,70 +167,227 @@ public class SmartPickingProtocol {
 
     /**
      * Internal class to handle and parse server responses.
+     * <p>
+     * Instances can be reused with {@link #parse}: the field array only grows,
+     * so steady-state parsing allocates nothing unless the raw text is kept.
      */
     public static class VisionResult {
-        private final boolean success;
-        private final Command _cmd;
-        private final double[] data;
-        private final String raw;
+        private static final int INITIAL_FIELDS = 16;
+        /** Status of a GET_NEXT_PART_POS reply when the capture has no further parts */
+        public static final int STATUS_NO_MORE_PARTS = 1;
+
+        private boolean success;
+        private Command _cmd;
+        private double[] data = new double[INITIAL_FIELDS];
+        private int _fieldCount;
+        private int _malformedCount;
+        private int _firstMalformed = -1;
+        private String raw;
+
+        public VisionResult() {
+        }
 
         public VisionResult(String rawResponse, Command cmd) {
-            this.raw = rawResponse;
+            this(rawResponse, cmd, true);
+        }
+
+        public VisionResult(CharSequence frame, Command cmd, boolean keepRaw) {
+            parse(frame, cmd, keepRaw);
+        }
+
+        /**
+         * Parses a reply such as {@code (0,1,0.123,-0.456,...)} directly from the
+         * frame: one pass, splitting on commas, ignoring parentheses and blanks.
+         * Fields that are not numbers are stored as NaN and counted. Success
+         * depends on the status field, as before, and on the pose fields the
+         * getters read for {@code cmd}: a reply whose pose is malformed is not
+         * a success, a bad field elsewhere (score, gripper, trailing comma) is
+         * only reported.
+         *
+         * @return {@link #isSuccess()}
+         */
+        public boolean parse(CharSequence frame, Command cmd, boolean keepRaw) {
             this._cmd = cmd;
-            if (rawResponse == null || rawResponse.isEmpty()) {
+            this.raw = (keepRaw && frame != null) ? frame.toString() : null;
+            this._fieldCount = 0;
+            this._malformedCount = 0;
+            this._firstMalformed = -1;
+            if (frame == null || frame.length() == 0) {
                 this.success = false;
-                this.data = new double[0];
-                return;
+                return false;
+            }
+
+            boolean statusOk = false;
+            boolean poseMalformed = false;
+            int firstPoseField = poseIndex(cmd, 0);
+            int lastPoseField = poseIndex(cmd, 5);
+            int length = frame.length();
+            int start = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i < length && frame.charAt(i) != ',') continue;
+
+                int from = start;
+                int to = i;
+                while (from < to && isIgnorable(frame.charAt(from))) from++;
+                while (to > from && isIgnorable(frame.charAt(to - 1))) to--;
+
+                int field = _fieldCount++;
+                if (field == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                if (field == 0) {
+                    statusOk = (to - from == 1) && frame.charAt(from) == '0';
+                }
+                double value = parseDouble(frame, from, to, Double.NaN);
+                if (value != value) {
+                    if (_malformedCount++ == 0) _firstMalformed = field;
+                    if (field >= firstPoseField && field <= lastPoseField) poseMalformed = true;
+                }
+                data[field] = value;
+                start = i + 1;
             }
+            this.success = statusOk && !poseMalformed;
+            return success;
+        }
+
+        // Index of pose component 0..5 (X, Y, Z, Rx, Ry, Rz) in a reply to cmd
+        private static int poseIndex(Command cmd, int component) {
+            return ((cmd == Command.GET_CONTAINER_POS) ? 5 : 2) + component;
+        }
 
-            // Cleanup characters: ( ) and whitespace
-            String cleaned = rawResponse.replace("(", "").replace(")", "").trim();
-            String[] parts = cleaned.split(",");
+        private static boolean isIgnorable(char c) {
+            return c == '(' || c == ')' || c == ' ' || c == '\t' || c == '\r' || c == '\n';
+        }
 
-            this.success = parts[0].trim().equals("0");
-            this.data = new double[parts.length];
+        static double parseDouble(CharSequence s, int from, int to) {
+            double value = parseDouble(s, from, to, Double.NaN);
+            if (value != value) throw new NumberFormatException("not a number: " + s.subSequence(from, to));
+            return value;
+        }
 
-            for (int i = 0; i < parts.length; i++) {
-                try {
-                    this.data[i] = Double.parseDouble(parts[i].trim());
-                } catch (NumberFormatException e) {
-                    this.data[i] = 0.0;
+        /**
+         * Parses {@code [+-]digits[.digits][(e|E)[+-]digits]} without creating a String.
+         *
+         * @return the value, or {@code invalid} if the field is not a number
+         */
+        static double parseDouble(CharSequence s, int from, int to, double invalid) {
+            if (from >= to) return invalid;
+            int i = from;
+            boolean negative = false;
+            char c = s.charAt(i);
+            if (c == '-' || c == '+') {
+                negative = (c == '-');
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int significant = 0;
+            int scale = 0;
+            boolean seenDot = false;
+            for (; i < to; i++) {
+                c = s.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    if (significant < 18) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        if (seenDot) scale--;
+                        if (mantissa != 0) significant++;
+                    } else if (!seenDot) {
+                        scale++;
+                    }
+                    digits++;
+                } else if (c == '.' && !seenDot) {
+                    seenDot = true;
+                } else {
+                    break;
+                }
+            }
+            if (digits == 0) return invalid;
+            if (i < to) {
+                if (c != 'e' && c != 'E' || ++i >= to) return invalid;
+                boolean expNegative = false;
+                c = s.charAt(i);
+                if (c == '-' || c == '+') {
+                    expNegative = (c == '-');
+                    i++;
+                }
+                if (i >= to) return invalid;
+                int exp = 0;
+                for (; i < to; i++) {
+                    c = s.charAt(i);
+                    if (c < '0' || c > '9') return invalid;
+                    if (exp < 10000) exp = exp * 10 + (c - '0');
                 }
+                scale += expNegative ? -exp : exp;
             }
+            double value;
+            if (scale == 0) {
+                value = mantissa;
+            } else if (scale < 0 && scale >= -22 && mantissa < (1L << 53)) {
+                value = mantissa / POWERS_OF_TEN[-scale];
+            } else if (scale > 0 && scale <= 22 && mantissa < (1L << 53)) {
+                value = mantissa * POWERS_OF_TEN[scale];
+            } else {
+                // Rare: let the JDK do the correctly rounded conversion
+                return Double.parseDouble(s.subSequence(from, to).toString());
+            }
+            return negative ? -value : value;
         }
 
+        private static final double[] POWERS_OF_TEN = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        public Command getCommand() { return _cmd; }
+        public int getFieldCount() { return _fieldCount; }
+        public int getMalformedCount() { return _malformedCount; }
+
+        /**
+         * @return the index of the first field that was not a number, or -1
+         */
+        public int getFirstMalformedField() { return _firstMalformed; }
+
         public boolean isSuccess() { return success; }
 
+        /**
+         * @return the status field of the reply, or -1 if there is none or it is not a number
+         */
+        public int getStatus() {
+            return (_fieldCount > 0 && data[0] == data[0]) ? (int) data[0] : -1;
+        }
+
+        /**
+         * True for the regular end of a GET_NEXT_PART_POS sequence: the server
+         * has no more parts in this capture. Not a success, but not a failure either.
+         */
+        public boolean isEndOfList() {
+            return _cmd == Command.GET_NEXT_PART_POS && _malformedCount == 0 && getStatus() == STATUS_NO_MORE_PARTS;
+        }
+
         // --- Getters with Index Switching Logic ---
 
         public double getX() {
-            int index = (_cmd == Command.GET_CONTAINER_POS) ? 5 : 2;
-            return getDataSafe(index);
+            return getDataSafe(poseIndex(_cmd, 0));
         }
 
         public double getY() {
-            int index = (_cmd == Command.GET_CONTAINER_POS) ? 6 : 3;
-            return getDataSafe(index);
+            return getDataSafe(poseIndex(_cmd, 1));
         }
 
         public double getZ() {
-            int index = (_cmd == Command.GET_CONTAINER_POS) ? 7 : 4;
-            return getDataSafe(index);
+            return getDataSafe(poseIndex(_cmd, 2));
         }
 
         public double getRx() {
-            int index = (_cmd == Command.GET_CONTAINER_POS) ? 8 : 5;
-            return getDataSafe(index);
+            return getDataSafe(poseIndex(_cmd, 3));
         }
 
         public double getRy() {
-            int index = (_cmd == Command.GET_CONTAINER_POS) ? 9 : 6;
-            return getDataSafe(index);
+            return getDataSafe(poseIndex(_cmd, 4));
         }
 
         public double getRz() {
-            int index = (_cmd == Command.GET_CONTAINER_POS) ? 10 : 7;
-            return getDataSafe(index);
+            return getDataSafe(poseIndex(_cmd, 5));
         }
 
         public double getScore() {
@@ -153,12 +398,13 @@ public class SmartPickingProtocol {
         }
 
         private double getDataSafe(int index) {
-            return (data.length > index) ? data[index] : 0.0;
+            return (_fieldCount > index) ? data[index] : 0.0;
         }
 
         @Override
         public String toString() {
-            return "VisionResult{success=" + success + ", raw='" + raw + "'}";
+            return "VisionResult{success=" + success + ", fields=" + _fieldCount
+                    + (_malformedCount > 0 ? ", malformed=" + _malformedCount : "") + ", raw='" + raw + "'}";
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,481 @@
+package biemhTekniker.vision;
+
+import biemhTekniker.config.RobotConfig;
+import biemhTekniker.logger.FlightRecorder;
+import biemhTekniker.logger.Logger;
+import biemhTekniker.vision.HandshakeEngine.Input;
+import biemhTekniker.vision.SmartPickingProtocol.Command;
+import biemhTekniker.vision.SmartPickingProtocol.VisionResult;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The vision work loop: connection supervision, reference and mode handling,
+ * and the DataRequest/PickPositionReady handshake with the PLC.
+ * <p>
+ * Plain Java, so it runs inside {@link SmartPickingClient} on the robot and in
+ * headless tools with an in-memory {@link VisionIO}.
+ */
+public class SmartPickingWorker implements Runnable {
+
+    private static final Logger log = Logger.getLogger(SmartPickingWorker.class);
+
+    private enum Mode {
+        NONE,
+        AUTO,
+        CALIBRATION
+    }
+
+    private final VisionIO _io;
+    private final VisionSocketClient _socketClient;
+    private final SmartPickingProtocol _protocol;
+    private final long _loopIntervalMs;
+    private final HandshakeEngine _handshake;
+    private VisionCapture _capture;
+
+    private final ReferenceManager _references = ReferenceManager.get();
+    private Mode _currentMode = Mode.NONE;
+    // Mode the server was in before a reference load reset it; re-selecting it keeps the queued parts
+    private Mode _modeBeforeLoad = Mode.NONE;
+    private volatile boolean _running = true;
+
+    // Candidates from one LOCATE_PARTS, handed out one per DataRequest
+    private final PoseQueue _partQueue = VisionDataBridge.get().getPartQueue();
+    private final PoseQueue.Pose _part = new PoseQueue.Pose();
+    private int _partsPerCapture;
+    private long _poseMaxAgeMs;
+
+    // Prefetch: the next parts are located while the robot is away from the camera
+    private boolean _prefetchEnabled;
+    private long _prefetchAttemptScene = -1;
+
+    // Link supervision: keepalive probes on an idle link, reconnects with backoff
+    private long _heartbeatIntervalMs;
+    private long _heartbeatTimeoutMs;
+    private long _degradedRttMs;
+    private Command _heartbeatCommand;
+    private long _reconnectMinDelayMs;
+    private long _reconnectMaxDelayMs;
+    private long _reconnectDelayMs;
+    private long _nextConnectMillis = 0;
+    private int _failedConnects = 0;
+    private long _lastRttMicros = -1;
+
+    private long _statsLogIntervalMs;
+    private long _nextStatsLogMillis;
+
+    // PLC input edge to the matching output: DataRequestSent, PickPositionReady, both outputs low again
+    private final LatencyHistogram _ackLatency = new LatencyHistogram();
+    private final LatencyHistogram _readyLatency = new LatencyHistogram();
+    private final LatencyHistogram _releaseLatency = new LatencyHistogram();
+
+    // Cancels a vision command when the task stops or the PLC withdraws run mode
+    private final SmartPickingProtocol.AbortCondition _runAbort = new SmartPickingProtocol.AbortCondition() {
+        public boolean shouldAbort() {
+            return !_running || !_handshake.isHigh(Input.RUN_MODE);
+        }
+    };
+
+    public SmartPickingWorker(VisionIO io, RobotConfig config) {
+        this._io = io;
+        String delimiter = config.getString("vision.frameDelimiter", ")");
+        _socketClient = new VisionSocketClient(
+                config.getString("vision.ip", "172.31.1.69"),
+                config.getInt("vision.port", 59002),
+                delimiter.isEmpty() ? VisionFrameDecoder.DEFAULT_DELIMITER : (byte) delimiter.charAt(0));
+        _socketClient.setConnectTimeout(config.getInt("vision.connectTimeoutMs", 2000));
+        _protocol = new SmartPickingProtocol(_socketClient);
+        for (Command cmd : Command.values()) {
+            _protocol.setTimeout(cmd, config.getLong("vision.timeout." + cmd.name(), cmd.getDefaultTimeoutMs()));
+        }
+        _references.setReloadAfterDisconnect(config.getLong("vision.reference.reloadAfterDisconnectMs",
+                ReferenceManager.DEFAULT_RELOAD_AFTER_DISCONNECT_MS));
+        if (_references.getRequested() == null) {
+            _references.requestChangeover(config.getString("vision.reference", "BIEMH26_105055"));
+        }
+        _heartbeatIntervalMs = config.getLong("vision.heartbeat.intervalMs", 2000);
+        _heartbeatTimeoutMs = config.getLong("vision.heartbeat.timeoutMs", 1000);
+        _degradedRttMs = config.getLong("vision.heartbeat.degradedRttMs", 500);
+        try {
+            _heartbeatCommand = Command.valueOf(config.getString("vision.heartbeat.command", "GET_PART_POS"));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown vision.heartbeat.command, using GET_PART_POS.");
+            _heartbeatCommand = Command.GET_PART_POS;
+        }
+        _reconnectMinDelayMs = config.getLong("vision.reconnect.minDelayMs", 100);
+        _reconnectMaxDelayMs = config.getLong("vision.reconnect.maxDelayMs", 5000);
+        _reconnectDelayMs = _reconnectMinDelayMs;
+        _statsLogIntervalMs = config.getLong("vision.stats.logIntervalMs", 60000);
+        _nextStatsLogMillis = System.currentTimeMillis() + _statsLogIntervalMs;
+        _prefetchEnabled = config.getBoolean("vision.prefetch.enabled", false);
+        _poseMaxAgeMs = config.getLong("vision.pose.maxAgeMs", 30000);
+        _partsPerCapture = Math.max(1, Math.min(_partQueue.capacity(),
+                config.getInt("vision.partsPerCapture", 4)));
+        _loopIntervalMs = config.getLong("vision.loopIntervalMs", 100);
+        _handshake = new HandshakeEngine(io, config.getLong("vision.handshake.samplePeriodUs", 1000));
+        _handshake.addHandler(new HandshakeEngine.EdgeHandler() {
+            public void onEdge(Input input, boolean rising, long nanos) {
+                log.debug("PLC %s %s", input, rising ? "high" : "low");
+            }
+        });
+        if (config.getBoolean("vision.spans.enabled", true)) {
+            SpanRecorder.install(config.getInt("vision.spans.capacity", SpanRecorder.DEFAULT_CAPACITY),
+                    new File(config.getString("vision.spans.dir", "logs/trace")));
+        }
+        if (config.getBoolean("vision.capture.enabled", false)) {
+            startCapture(config, delimiter.isEmpty() ? VisionFrameDecoder.DEFAULT_DELIMITER : (byte) delimiter.charAt(0));
+        }
+        resetOutputs();
+    }
+
+    /**
+     * Runs until {@link #stop()} is called or the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        _handshake.start();
+        while (_running) {
+            try {
+                long edges = _handshake.getEdgeCount();
+                if (!_socketClient.isConnected()) {
+                    handleReconnection();
+                } else if (_socketClient.getIdleMillis() >= _heartbeatIntervalMs
+                        && !_handshake.isHigh(Input.DATA_REQUEST)) {
+                    // A waiting DataRequest goes first; its commands prove the link anyway
+                    probeLink();
+                } else {
+                    processWorkCycle();
+                }
+                logStats();
+                // Any PLC input edge starts the next cycle at once
+                _handshake.awaitEdge(edges, _loopIntervalMs);
+            } catch (InterruptedException e) {
+                _running = false;
+            } catch (Exception e) {
+                log.error("Loop Error: " + e.getMessage());
+                FlightRecorder.dumpRateLimited("SmartPickingWorker loop error", e);
+            }
+        }
+        _handshake.stop();
+        _socketClient.shutdown();
+        if (_capture != null) {
+            _capture.close();
+        }
+    }
+
+    /**
+     * Ends the loop and fails the vision command in flight, so the loop exits promptly.
+     */
+    public void stop() {
+        _running = false;
+        _handshake.stop();
+        _socketClient.shutdown();
+    }
+
+    private void startCapture(RobotConfig config, byte delimiter) {
+        File dir = new File(config.getString("vision.capture.dir", "logs/vision-capture"));
+        File file = new File(dir, "capture-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".bvc");
+        try {
+            _capture = new VisionCapture(file,
+                    config.getString("vision.ip", "172.31.1.69") + ":" + config.getInt("vision.port", 59002),
+                    delimiter, config.getLong("vision.capture.maxBytes", 256L * 1024 * 1024));
+            _socketClient.setCapture(_capture);
+            log.info("Recording vision traffic to %s", file.getAbsolutePath());
+        } catch (IOException e) {
+            // Picking works without it; the capture is for offline analysis only
+            log.warn("Vision capture disabled: %s", e.getMessage());
+        }
+    }
+
+    private void handleReconnection() {
+        if (VisionDataBridge.get().getLinkStatus().isUp()) {
+            publishLinkState(VisionLinkStatus.State.DOWN);
+        }
+        _references.onDisconnected();
+        _currentMode = Mode.NONE;
+        _modeBeforeLoad = Mode.NONE;
+        _partQueue.invalidate();
+
+        long now = System.currentTimeMillis();
+        if (now < _nextConnectMillis) return;
+        if (_socketClient.connect()) {
+            _failedConnects = 0;
+            _reconnectDelayMs = _reconnectMinDelayMs;
+            _references.onConnected();
+            publishLinkState(VisionLinkStatus.State.UP);
+            return;
+        }
+        // Exponential backoff; the jitter keeps several cells from retrying in lockstep
+        _failedConnects++;
+        long jitter = ThreadLocalRandom.current().nextLong(_reconnectDelayMs / 2 + 1);
+        _nextConnectMillis = now + _reconnectDelayMs / 2 + jitter;
+        _reconnectDelayMs = Math.min(_reconnectMaxDelayMs, _reconnectDelayMs * 2);
+        publishLinkState(VisionLinkStatus.State.DOWN);
+    }
+
+    /**
+     * Sends a harmless command on an idle link. Any reply proves the server is
+     * alive; no reply within the probe timeout resets the connection, so a dead
+     * peer is noticed within one probe instead of at the next command deadline.
+     */
+    private void probeLink() throws InterruptedException {
+        VisionRequest probe = _protocol.send(_heartbeatCommand, null, _heartbeatTimeoutMs);
+        probe.await(_heartbeatTimeoutMs + 1000, TimeUnit.MILLISECONDS);
+        if (probe.getState() != VisionRequest.State.SUCCEEDED) {
+            log.warn("Vision keepalive failed: %s", probe.getFailure());
+            return;
+        }
+        _lastRttMicros = TimeUnit.NANOSECONDS.toMicros(probe.getElapsedNanos());
+        publishLinkState(_lastRttMicros > _degradedRttMs * 1000
+                ? VisionLinkStatus.State.DEGRADED : VisionLinkStatus.State.UP);
+    }
+
+    private void logStats() {
+        long now = System.currentTimeMillis();
+        if (_statsLogIntervalMs <= 0 || now < _nextStatsLogMillis) return;
+        _nextStatsLogMillis = now + _statsLogIntervalMs;
+        String summary = CommandStats.get().summaryLine();
+        if (summary != null) {
+            log.info(summary);
+        }
+        if (_ackLatency.getCount() > 0) {
+            log.info("PLC handshake (sampled every %d us): %s", _handshake.getSamplePeriodMicros(),
+                    "ack " + describe(_ackLatency) + "; ready " + describe(_readyLatency)
+                            + "; release " + describe(_releaseLatency));
+            _ackLatency.reset();
+            _readyLatency.reset();
+            _releaseLatency.reset();
+        }
+    }
+
+    private static String describe(LatencyHistogram histogram) {
+        return String.format("n=%d p50=%.1f p99=%.1f max=%.1f ms", histogram.getCount(),
+                histogram.getPercentileMicros(0.50) / 1000.0, histogram.getPercentileMicros(0.99) / 1000.0,
+                histogram.getMaxMicros() / 1000.0);
+    }
+
+    private void publishLinkState(VisionLinkStatus.State state) {
+        VisionDataBridge bridge = VisionDataBridge.get();
+        VisionLinkStatus current = bridge.getLinkStatus();
+        if (current.getState() == state && current.getFailedConnects() == _failedConnects
+                && current.getLastRttMicros() == _lastRttMicros) {
+            return;
+        }
+        long since = (current.getState() == state) ? current.getSinceMillis() : System.currentTimeMillis();
+        bridge.setLinkStatus(new VisionLinkStatus(state, since, _lastRttMicros, _failedConnects));
+        if (current.getState() != state) {
+            log.info("Vision link %s (was %s for %d ms).", state, current.getState(),
+                    System.currentTimeMillis() - current.getSinceMillis());
+        }
+    }
+
+    /**
+     * One pass of the work loop. A pending changeover is carried out when the
+     * PLC is not waiting for a part, or when no queued part is left to answer
+     * it with; until then DataRequests are served from the queue, so the robot
+     * keeps picking the parts located with the previous reference.
+     */
+    private void processWorkCycle() {
+        boolean loadWanted = _references.isChangeoverPending() || _references.getActive() == null;
+        boolean servingQueue = _currentMode == Mode.AUTO && _handshake.isHigh(Input.DATA_REQUEST)
+                && _partQueue.size() > 0;
+        if (loadWanted && !servingQueue) {
+            Mode before = _currentMode;
+            if (_references.ensureLoaded(_protocol)) {
+                // Loading a reference leaves the server in its default mode
+                _modeBeforeLoad = before;
+                _currentMode = Mode.NONE;
+            }
+            return;
+        }
+
+        handleModeSelection();
+
+        if (_currentMode == Mode.AUTO) {
+            if (_handshake.isHigh(Input.DATA_REQUEST)) {
+                // With a changeover pending, only queued parts are handed out; locating waits for the load
+                executeRunSequence(!loadWanted);
+            } else if (_prefetchEnabled) {
+                prefetch();
+            }
+        } else if (_currentMode == Mode.CALIBRATION) {
+            if (_handshake.isHigh(Input.CALIBRATION_REQUEST)) {
+                executeCalibrationSequence();
+            }
+        }
+    }
+
+    private void handleModeSelection() {
+        boolean runReq = _handshake.isHigh(Input.RUN_MODE);
+        boolean calReq = _handshake.isHigh(Input.CALIBRATION_MODE);
+
+        Mode targetMode = runReq ? Mode.AUTO : (calReq ? Mode.CALIBRATION : Mode.NONE);
+
+        if (targetMode != Mode.NONE && targetMode != _currentMode) {
+            Command cmd = (targetMode == Mode.AUTO) ? Command.SET_AUTO_MODE : Command.SET_CALIB_MODE;
+            if (_protocol.setMode(cmd)) {
+                // Re-entering the mode a reference load reset does not move the bin
+                if (targetMode != _modeBeforeLoad) {
+                    _partQueue.invalidate();
+                }
+                _modeBeforeLoad = Mode.NONE;
+                _currentMode = targetMode;
+                log.info("Mode changed to: %s", _currentMode);
+            }
+        } else if (targetMode == Mode.NONE) {
+            _currentMode = Mode.NONE;
+        }
+    }
+
+    private void executeRunSequence(boolean mayLocate) {
+        SpanRecorder spans = SpanRecorder.getInstance();
+        long requested = _handshake.getLastEdgeNanos(Input.DATA_REQUEST, true);
+        if (spans != null) spans.beginCycle();
+        _io.setDataRequestSent(true);
+        long acknowledged = System.nanoTime();
+        recordSince(_ackLatency, requested);
+        if (requested == 0) requested = acknowledged;
+        if (spans != null) spans.record(SpanRecorder.Phase.PLC_REQUEST, 0, requested, acknowledged);
+
+        boolean success = takeQueuedPart();
+        if (!success && _running && mayLocate) {
+            success = locateParts() && takeQueuedPart();
+        }
+
+        if (success && _running) {
+            VisionDataBridge bridge = VisionDataBridge.get();
+            bridge.update(_part.x, _part.y, _part.z, _part.rx, _part.ry, _part.rz, _part.captureMillis);
+            // The robot now moves into the scene; images taken from here on may show the arm
+            bridge.invalidateScene();
+            log.info("Part found at X=%.4f, Y=%.4f", _part.x, _part.y);
+
+            _io.setPickPositionReady(true);
+            long ready = System.nanoTime();
+            recordSince(_readyLatency, requested);
+            waitForInputLow(Input.DATA_REQUEST);
+            if (spans != null) {
+                long dropped = _handshake.getLastEdgeNanos(Input.DATA_REQUEST, false);
+                spans.record(SpanRecorder.Phase.PLC_ACK, 0, ready, dropped > ready ? dropped : System.nanoTime());
+            }
+        }
+
+        _io.setDataRequestSent(false);
+        _io.setPickPositionReady(false);
+        if (!_handshake.isHigh(Input.DATA_REQUEST)) {
+            recordSince(_releaseLatency, _handshake.getLastEdgeNanos(Input.DATA_REQUEST, false));
+        }
+        if (spans != null) {
+            spans.record(SpanRecorder.Phase.CYCLE, 0, requested, System.nanoTime());
+            spans.endCycle();
+        }
+    }
+
+    // Edge times are 0 before the first edge, e.g. when DataRequest was already high at startup
+    private static void recordSince(LatencyHistogram histogram, long edgeNanos) {
+        if (edgeNanos != 0) {
+            histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - edgeNanos));
+        }
+    }
+
+    /**
+     * Runs one capture and locate round and queues up to {@link #_partsPerCapture}
+     * candidates: the best part from GET_PART_POS, then GET_NEXT_PART_POS until
+     * the server reports no more parts.
+     *
+     * @return true if at least one part was queued
+     */
+    private boolean locateParts() {
+        Command[] steps = {
+                Command.CAPTURE_DATA,
+                Command.LOCATE_CONTAINER,
+                Command.LOCATE_PARTS
+        };
+
+        long generation = _partQueue.generation();
+        long captureMillis = System.currentTimeMillis();
+        for (int i = 0; i < steps.length; i++) {
+            if (!_running) return false;
+            VisionResult res = _protocol.execute(steps[i], null, _runAbort);
+
+            if (!res.isSuccess()) {
+                log.error("Step %s failed.", steps[i]);
+                _references.onVisionRound(false);
+                return false;
+            }
+        }
+        int queued = 0;
+        VisionResult res = _protocol.execute(Command.GET_PART_POS, null, _runAbort);
+        _references.onVisionRound(res.isSuccess());
+        while (res.isSuccess() && queueResult(res, captureMillis, generation)) {
+            queued++;
+            if (queued >= _partsPerCapture || !_running) break;
+            res = _protocol.execute(Command.GET_NEXT_PART_POS, null, _runAbort);
+        }
+        log.debug("Queued %d part(s) from one capture%s.", queued, res.isEndOfList() ? ", no more parts" : "");
+        return queued > 0;
+    }
+
+    private boolean queueResult(VisionResult res, long captureMillis, long generation) {
+        return _partQueue.offer(res.getX(), res.getY(), res.getZ(), res.getRx(), res.getRy(), res.getRz(),
+                captureMillis, generation);
+    }
+
+    /**
+     * Takes the next queued part that is still valid: same bin generation and
+     * captured less than {@link #_poseMaxAgeMs} ago.
+     */
+    private boolean takeQueuedPart() {
+        long notBefore = System.currentTimeMillis() - _poseMaxAgeMs;
+        if (!_partQueue.poll(_part, notBefore)) return false;
+        log.debug("Answering DataRequest from queue, age %d ms.",
+                System.currentTimeMillis() - _part.captureMillis);
+        return true;
+    }
+
+    /**
+     * Locates the next parts once per scene while the queue is empty and the
+     * camera is clear, so the next DataRequest can be answered without waiting
+     * for the vision system.
+     */
+    private void prefetch() {
+        VisionDataBridge bridge = VisionDataBridge.get();
+        long scene = bridge.getSceneVersion();
+        if (scene == _prefetchAttemptScene || !bridge.isCameraClear() || _partQueue.size() > 0) return;
+        _prefetchAttemptScene = scene;
+
+        long start = System.nanoTime();
+        if (!locateParts()) return;
+        if (bridge.getSceneVersion() != scene) {
+            log.info("Prefetched parts discarded, scene changed during capture.");
+            _partQueue.invalidate();
+            return;
+        }
+        log.debug("Prefetched parts in %.0f ms.", (System.nanoTime() - start) / 1e6);
+    }
+
+    private void executeCalibrationSequence() {
+        _io.setCalibrationComplete(true);
+        waitForInputLow(Input.CALIBRATION_REQUEST);
+        _io.setCalibrationComplete(false);
+    }
+
+    private void waitForInputLow(Input input) {
+        try {
+            while (_running && !_handshake.await(input, false, _loopIntervalMs)) {
+                // Re-check _running; stop() also wakes the wait
+            }
+        } catch (InterruptedException e) {
+            _running = false;
+        }
+    }
+
+    private void resetOutputs() {
+        _io.setDataRequestSent(false);
+        _io.setPickPositionReady(false);
+        _io.setCalibrationComplete(false);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,256 @@
+package biemhTekniker.vision;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timeline of the pick cycle: where each cycle's time goes, phase by phase.
+ * <p>
+ * Spans are start/end {@link System#nanoTime()} stamps with a phase id, kept
+ * in a pre-allocated ring of primitive arrays; recording claims a slot with
+ * one atomic increment, fills it under the slot's lock (uncontended unless an
+ * export reads that slot) and allocates nothing. Size the ring for the
+ * history wanted, e.g. an hour of cycles. Any thread may record.
+ * <p>
+ * {@link #export()} writes the ring as a Chrome trace (open it in
+ * chrome://tracing or Perfetto for a flame chart per cycle) and as CSV.
+ * Recording is off until {@link #install} is called.
+ */
+public class SpanRecorder {
+
+    public static final int DEFAULT_CAPACITY = 32768;
+
+    /**
+     * Phases of a pick cycle. The lane groups them into rows of the trace.
+     */
+    public enum Phase {
+        /** DataRequest rising edge to the end of the handshake */
+        CYCLE("PLC"),
+        /** DataRequest rising edge until the vision task answered with DataRequestSent */
+        PLC_REQUEST("PLC"),
+        /** One vision command; the detail is the {@link SmartPickingProtocol.Command} ordinal */
+        COMMAND("Vision"),
+        /** Pose published on the bridge until the application took it */
+        HANDOFF("Application"),
+        /** PickPositionReady until the PLC dropped DataRequest */
+        PLC_ACK("PLC");
+
+        private final String lane;
+        Phase(String lane) { this.lane = lane; }
+        public String getLane() { return lane; }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final SmartPickingProtocol.Command[] COMMANDS = SmartPickingProtocol.Command.values();
+    private static final String[] LANES = {"PLC", "Vision", "Application"};
+
+    private static volatile SpanRecorder instance;
+
+    private final int _mask;
+    private final long[] _start;
+    private final long[] _end;
+    private final long[] _cycle;
+    private final int[] _phase;
+    private final int[] _detail;
+    // Sequence number each slot holds; guarded, like the slot, by its lock
+    private final long[] _sequence;
+    private final Object[] _locks;
+    private final AtomicLong _next = new AtomicLong(0);
+    private final AtomicLong _cycles = new AtomicLong(0);
+    private final File _exportDirectory;
+    private final long _originNanos = System.nanoTime();
+    private final long _originMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private volatile long _activeCycle = 0;
+
+    SpanRecorder(int capacity, File exportDirectory) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this._mask = capacity - 1;
+        this._start = new long[capacity];
+        this._end = new long[capacity];
+        this._cycle = new long[capacity];
+        this._phase = new int[capacity];
+        this._detail = new int[capacity];
+        this._sequence = new long[capacity];
+        this._locks = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            _sequence[i] = -1;
+            _locks[i] = new Object();
+        }
+        this._exportDirectory = exportDirectory;
+    }
+
+    /**
+     * Starts recording. Later calls return the recorder already installed.
+     */
+    public static synchronized SpanRecorder install(int capacity, File exportDirectory) {
+        if (instance == null) {
+            instance = new SpanRecorder(capacity, exportDirectory);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the installed recorder, or null if spans are not recorded
+     */
+    public static SpanRecorder getInstance() {
+        return instance;
+    }
+
+    public int capacity() {
+        return _mask + 1;
+    }
+
+    /**
+     * Starts a new cycle; spans recorded until {@link #endCycle()} belong to it.
+     */
+    public long beginCycle() {
+        long cycle = _cycles.incrementAndGet();
+        _activeCycle = cycle;
+        return cycle;
+    }
+
+    public void endCycle() {
+        _activeCycle = 0;
+    }
+
+    /**
+     * Records a span of the active cycle, or of no cycle (0) between cycles.
+     */
+    public void record(Phase phase, int detail, long startNanos, long endNanos) {
+        long sequence = _next.getAndIncrement();
+        int slot = (int) sequence & _mask;
+        long cycle = _activeCycle;
+        synchronized (_locks[slot]) {
+            _sequence[slot] = sequence;
+            _start[slot] = startNanos;
+            _end[slot] = endNanos;
+            _cycle[slot] = cycle;
+            _phase[slot] = phase.ordinal();
+            _detail[slot] = detail;
+        }
+    }
+
+    /**
+     * Writes the recorded spans to {@code trace-<time>.json} and {@code .csv}
+     * in the export directory.
+     *
+     * @return the trace file
+     */
+    public File export() throws IOException {
+        File dir = _exportDirectory;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir.getAbsolutePath());
+        }
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File trace = new File(dir, "trace-" + stamp + ".json");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(trace), "UTF-8"));
+        try {
+            writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(dir, "trace-" + stamp + ".csv")), "UTF-8"));
+        try {
+            writeCsv(writer);
+        } finally {
+            writer.close();
+        }
+        return trace;
+    }
+
+    /**
+     * Chrome trace event format: one complete event per span, one row per lane.
+     *
+     * @return the number of spans written
+     */
+    public int writeChromeTrace(Writer out) throws IOException {
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        for (int i = 0; i < LANES.length; i++) {
+            out.write(i == 0 ? "\n" : ",\n");
+            out.write("{\"ph\":\"M\",\"pid\":1,\"tid\":" + (i + 1)
+                    + ",\"name\":\"thread_name\",\"args\":{\"name\":\"" + LANES[i] + "\"}}");
+        }
+        Span span = new Span();
+        int count = 0;
+        long last = _next.get();
+        for (long seq = Math.max(0, last - capacity()); seq < last; seq++) {
+            if (!read(seq, span)) continue;
+            out.write(",\n{\"ph\":\"X\",\"pid\":1,\"tid\":" + (laneOf(span.phase) + 1)
+                    + ",\"name\":\"" + name(span.phase, span.detail) + "\",\"cat\":\"" + span.phase.name()
+                    + "\",\"ts\":" + toEpochMicros(span.start)
+                    + ",\"dur\":" + TimeUnit.NANOSECONDS.toMicros(span.end - span.start)
+                    + ",\"args\":{\"cycle\":" + span.cycle + "}}");
+            count++;
+        }
+        out.write("\n]}\n");
+        return count;
+    }
+
+    /**
+     * One line per span: cycle, phase, name, start (epoch microseconds), duration (microseconds).
+     *
+     * @return the number of spans written
+     */
+    public int writeCsv(Writer out) throws IOException {
+        out.write("cycle,phase,name,startMicros,durationMicros\n");
+        Span span = new Span();
+        int count = 0;
+        long last = _next.get();
+        for (long seq = Math.max(0, last - capacity()); seq < last; seq++) {
+            if (!read(seq, span)) continue;
+            out.write(span.cycle + "," + span.phase.name() + "," + name(span.phase, span.detail) + ","
+                    + toEpochMicros(span.start) + "," + TimeUnit.NANOSECONDS.toMicros(span.end - span.start) + "\n");
+            count++;
+        }
+        return count;
+    }
+
+    private static final class Span {
+        long start, end, cycle;
+        Phase phase;
+        int detail;
+    }
+
+    // Copies a slot if it still holds span number seq
+    private boolean read(long seq, Span span) {
+        int slot = (int) seq & _mask;
+        synchronized (_locks[slot]) {
+            if (_sequence[slot] != seq) return false;
+            span.start = _start[slot];
+            span.end = _end[slot];
+            span.cycle = _cycle[slot];
+            span.phase = PHASES[_phase[slot]];
+            span.detail = _detail[slot];
+        }
+        return true;
+    }
+
+    private long toEpochMicros(long nanos) {
+        return _originMicros + TimeUnit.NANOSECONDS.toMicros(nanos - _originNanos);
+    }
+
+    private static int laneOf(Phase phase) {
+        for (int i = 0; i < LANES.length; i++) {
+            if (LANES[i].equals(phase.getLane())) return i;
+        }
+        return 0;
+    }
+
+    private static String name(Phase phase, int detail) {
+        if (phase == Phase.COMMAND && detail >= 0 && detail < COMMANDS.length) {
+            return COMMANDS[detail].name();
+        }
+        return phase.name();
+    }
+}
@@ -0,0 +1,169 @@
+package biemhTekniker.vision;
+
+import biemhTekniker.logger.Logger;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Append-only recording of the traffic on a {@link VisionSocketClient}: every
+ * command as written, every reply frame as received, and connection changes,
+ * each with a nanosecond timestamp relative to the start of the capture.
+ * Read it back with {@link VisionCaptureReader}.
+ * <p>
+ * Records are collected in a buffer and written out after each reply, so a
+ * finished exchange is on disk even if the controller goes down right after.
+ * An I/O error or reaching {@code maxBytes} ends the capture; the link itself
+ * is never affected.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ * header : int MAGIC, short VERSION, long startMillis, byte delimiter, short length, UTF-8 peer
+ * record : byte type, long nanos, int length, payload
+ * </pre>
+ * CONNECT has no payload, SEND and REPLY carry the raw bytes (a reply includes
+ * its delimiter), DISCONNECT carries the reason as text.
+ */
+public class VisionCapture {
+
+    private static final Logger log = Logger.getLogger(VisionCapture.class);
+
+    static final int MAGIC = 0x42564331; // "BVC1"
+    static final short VERSION = 1;
+    static final int RECORD_OVERHEAD = 1 + 8 + 4;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final byte RECORD_CONNECT = 1;
+    public static final byte RECORD_SEND = 2;
+    public static final byte RECORD_REPLY = 3;
+    public static final byte RECORD_DISCONNECT = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File _file;
+    private final FileChannel _channel;
+    private final ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final long _startNanos = System.nanoTime();
+    private final long _maxBytes;
+    private long _written;
+    private boolean _closed = false;
+
+    public VisionCapture(File file, String peer, byte delimiter, long maxBytes) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create capture directory " + dir.getAbsolutePath());
+        }
+        this._file = file;
+        this._maxBytes = maxBytes;
+        this._channel = new FileOutputStream(file, true).getChannel();
+        if (_channel.size() > 0) {
+            _channel.close();
+            throw new IOException("Capture file already exists: " + file.getAbsolutePath());
+        }
+        byte[] peerBytes = peer.getBytes(UTF8);
+        _buffer.putInt(MAGIC);
+        _buffer.putShort(VERSION);
+        _buffer.putLong(System.currentTimeMillis());
+        _buffer.put(delimiter);
+        _buffer.putShort((short) peerBytes.length);
+        _buffer.put(peerBytes);
+        flush();
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public synchronized long getBytesWritten() {
+        return _written + _buffer.position();
+    }
+
+    public synchronized boolean isClosed() {
+        return _closed;
+    }
+
+    public void recordConnect() {
+        record(RECORD_CONNECT, null, 0, 0, false);
+    }
+
+    public void recordSend(byte[] buffer, int offset, int length) {
+        record(RECORD_SEND, buffer, offset, length, false);
+    }
+
+    public void recordReply(byte[] buffer, int offset, int length) {
+        record(RECORD_REPLY, buffer, offset, length, true);
+    }
+
+    public void recordDisconnect(String reason) {
+        byte[] bytes = (reason != null ? reason : "").getBytes(UTF8);
+        record(RECORD_DISCONNECT, bytes, 0, bytes.length, true);
+    }
+
+    private synchronized void record(byte type, byte[] payload, int offset, int length, boolean flush) {
+        if (_closed) return;
+        long nanos = System.nanoTime() - _startNanos;
+        try {
+            if (_written + _buffer.position() + RECORD_OVERHEAD + length > _maxBytes) {
+                log.info("Vision capture %s reached %d bytes, stopped.", _file.getName(), _maxBytes);
+                close();
+                return;
+            }
+            if (_buffer.remaining() < RECORD_OVERHEAD + length) {
+                flush();
+            }
+            if (_buffer.remaining() < RECORD_OVERHEAD + length) {
+                // Larger than the buffer: write it straight through
+                ByteBuffer large = ByteBuffer.allocate(RECORD_OVERHEAD + length);
+                putRecord(large, type, nanos, payload, offset, length);
+                large.flip();
+                writeFully(large);
+                return;
+            }
+            putRecord(_buffer, type, nanos, payload, offset, length);
+            if (flush) flush();
+        } catch (IOException e) {
+            log.warn("Vision capture %s stopped: %s", _file.getName(), e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte type, long nanos, byte[] payload, int offset, int length) {
+        buffer.put(type);
+        buffer.putLong(nanos);
+        buffer.putInt(length);
+        if (length > 0) buffer.put(payload, offset, length);
+    }
+
+    private void flush() throws IOException {
+        _buffer.flip();
+        writeFully(_buffer);
+        _buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            _written += _channel.write(buffer);
+        }
+    }
+
+    public synchronized void close() {
+        if (_closed) return;
+        try {
+            flush();
+        } catch (IOException e) {
+            log.warn("Vision capture %s: %s", _file.getName(), e.getMessage());
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        _closed = true;
+        try {
+            _channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
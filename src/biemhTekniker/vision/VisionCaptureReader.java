@@ -0,0 +1,121 @@
+package biemhTekniker.vision;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cursor over a {@link VisionCapture} file.
+ * <p>
+ * The file is mapped read-only and the payload is exposed as a reused view,
+ * like {@code LogJournalReader}. A record cut short by a crash ends the file.
+ * <pre>
+ * VisionCaptureReader reader = VisionCaptureReader.open(file);
+ * while (reader.next()) {
+ *     if (reader.getType() == VisionCapture.RECORD_REPLY) ... reader.getPayload() ...
+ * }
+ * </pre>
+ */
+public class VisionCaptureReader {
+
+    private final ByteBuffer _buffer;
+    private final ByteBuffer _payloadView;
+    private final long _startMillis;
+    private final byte _delimiter;
+    private final String _peer;
+
+    private byte _type;
+    private long _nanos;
+    private int _payloadOffset;
+    private int _payloadLength;
+
+    private VisionCaptureReader(ByteBuffer buffer) throws IOException {
+        this._buffer = buffer;
+        if (buffer.remaining() < 4 + 2 + 8 + 1 + 2 || buffer.getInt() != VisionCapture.MAGIC) {
+            throw new IOException("Not a vision capture file");
+        }
+        short version = buffer.getShort();
+        if (version != VisionCapture.VERSION) {
+            throw new IOException("Unsupported capture version " + version);
+        }
+        this._startMillis = buffer.getLong();
+        this._delimiter = buffer.get();
+        byte[] peer = new byte[buffer.getShort()];
+        buffer.get(peer);
+        this._peer = new String(peer, VisionCapture.UTF8);
+        this._payloadView = buffer.duplicate();
+    }
+
+    public static VisionCaptureReader open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return new VisionCaptureReader(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false at the end of the file
+     */
+    public boolean next() throws IOException {
+        if (_buffer.remaining() < VisionCapture.RECORD_OVERHEAD) return false;
+        int start = _buffer.position();
+        byte type = _buffer.get();
+        if (type < VisionCapture.RECORD_CONNECT || type > VisionCapture.RECORD_DISCONNECT) {
+            throw new IOException("Corrupt capture record type " + type + " at " + start);
+        }
+        long nanos = _buffer.getLong();
+        int length = _buffer.getInt();
+        if (length < 0 || length > _buffer.remaining()) {
+            _buffer.position(start);
+            return false;
+        }
+        _type = type;
+        _nanos = nanos;
+        _payloadOffset = _buffer.position();
+        _payloadLength = length;
+        _buffer.position(_payloadOffset + length);
+        return true;
+    }
+
+    public long getStartMillis() { return _startMillis; }
+    public byte getDelimiter() { return _delimiter; }
+    public String getPeer() { return _peer; }
+
+    /**
+     * One of the {@code VisionCapture.RECORD_*} types.
+     */
+    public byte getType() { return _type; }
+
+    /**
+     * Time of the record since the capture started.
+     */
+    public long getNanos() { return _nanos; }
+
+    /**
+     * Payload of the current record as a view into the mapping.
+     * The returned buffer is reused by the next call.
+     */
+    public ByteBuffer getPayload() {
+        _payloadView.limit(_payloadOffset + _payloadLength);
+        _payloadView.position(_payloadOffset);
+        return _payloadView;
+    }
+
+    public byte[] getPayloadBytes() {
+        byte[] bytes = new byte[_payloadLength];
+        getPayload().get(bytes);
+        return bytes;
+    }
+
+    public String getPayloadText() {
+        return VisionCapture.UTF8.decode(getPayload()).toString();
+    }
+}
@@ -1,16 +1,34 @@
 package biemhTekniker.vision;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A thread-safe singleton to share vision data between the
  * Background Task (SmartPickingClient) and the Robot Application (Main).
+ * <p>
+ * Each pose is published as one immutable {@link PoseSnapshot}, so readers
+ * never see coordinates of two different parts mixed. {@link #awaitNext}
+ * wakes the consumer as soon as a pose is published.
  */
 public class VisionDataBridge {
 
     private static final VisionDataBridge INSTANCE = new VisionDataBridge();
+    private static final int PART_QUEUE_CAPACITY = 16;
 
     // Volatile ensures changes are immediately visible to other threads
-    private volatile double x, y, z, rx, ry, rz;
-    private volatile boolean isFresh = false;
+    private volatile PoseSnapshot latest;
+    private volatile long consumedSequence = 0;
+    private final Object publishLock = new Object();
+
+    // Bumped whenever the robot may have changed what the camera sees
+    private final AtomicLong sceneVersion = new AtomicLong(0);
+    private volatile long clearVersion = -1;
+
+    private final PoseQueue partQueue = new PoseQueue(PART_QUEUE_CAPACITY);
+
+    private volatile VisionLinkStatus linkStatus =
+            new VisionLinkStatus(VisionLinkStatus.State.DOWN, System.currentTimeMillis(), -1, 0);
 
     private VisionDataBridge() {}
 
@@ -22,36 +40,158 @@ public class VisionDataBridge {
      * Updates the coordinates and marks data as fresh.
      * Call this from SmartPickingClient when a part is found.
      */
-    public void update(double x, double y, double z, double rx, double ry, double rz) {
-        this.x = x;
-        this.y = y;
-        this.z = z;
-        this.rx = rx;
-        this.ry = ry;
-        this.rz = rz;
-        this.isFresh = true;
+    public PoseSnapshot update(double x, double y, double z, double rx, double ry, double rz) {
+        return update(x, y, z, rx, ry, rz, System.currentTimeMillis());
+    }
+
+    /**
+     * @param captureMillis when the image behind this position was taken
+     * @return the published snapshot
+     */
+    public PoseSnapshot update(double x, double y, double z, double rx, double ry, double rz, long captureMillis) {
+        synchronized (publishLock) {
+            PoseSnapshot previous = latest;
+            long sequence = (previous != null) ? previous.getSequence() + 1 : 1;
+            PoseSnapshot snapshot = new PoseSnapshot(sequence, captureMillis, x, y, z, rx, ry, rz);
+            latest = snapshot;
+            publishLock.notifyAll();
+            return snapshot;
+        }
+    }
+
+    /**
+     * Waits until a pose newer than the last consumed one is published, and
+     * consumes it.
+     *
+     * @return the pose, or null if none arrived within the timeout
+     */
+    public PoseSnapshot awaitNext(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (publishLock) {
+            while (true) {
+                PoseSnapshot snapshot = latest;
+                if (snapshot != null && snapshot.getSequence() > consumedSequence) {
+                    consumedSequence = snapshot.getSequence();
+                    recordHandoff(snapshot);
+                    return snapshot;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return null;
+                TimeUnit.NANOSECONDS.timedWait(publishLock, remaining);
+            }
+        }
+    }
+
+    /**
+     * @return the most recently published pose, consumed or not; null before the first
+     */
+    public PoseSnapshot getLatest() {
+        return latest;
     }
 
     /**
      * Checks if new data has arrived since the last time we looked.
      */
     public boolean hasNewData() {
-        return isFresh;
+        PoseSnapshot snapshot = latest;
+        return snapshot != null && snapshot.getSequence() > consumedSequence;
     }
 
     /**
      * Marks the data as "read" or "stale" so we don't pick the same part twice.
      */
     public void consume() {
-        this.isFresh = false;
+        synchronized (publishLock) {
+            PoseSnapshot snapshot = latest;
+            if (snapshot != null && snapshot.getSequence() > consumedSequence) {
+                consumedSequence = snapshot.getSequence();
+                recordHandoff(snapshot);
+            }
+        }
+    }
+
+    private static void recordHandoff(PoseSnapshot snapshot) {
+        SpanRecorder spans = SpanRecorder.getInstance();
+        if (spans != null) {
+            spans.record(SpanRecorder.Phase.HANDOFF, 0, snapshot.getPublishNanos(), System.nanoTime());
+        }
+    }
+
+    // --- Vision link ---
+
+    /**
+     * Current state of the connection to the vision server. Check it before
+     * waiting on a pose, so the cell can fail fast while the link is down.
+     */
+    public VisionLinkStatus getLinkStatus() {
+        return linkStatus;
+    }
+
+    void setLinkStatus(VisionLinkStatus status) {
+        this.linkStatus = status;
+    }
+
+    // --- Scene tracking for prefetch ---
+
+    /**
+     * Called by the robot application once the arm has left the camera field of
+     * view after touching the scene, e.g. after a pick. Starts a new scene version
+     * and allows the vision task to capture it ahead of the next DataRequest.
+     */
+    public void signalCameraClear() {
+        clearVersion = sceneVersion.incrementAndGet();
+    }
+
+    /**
+     * Called when the scene changed without the camera being clear, e.g. the
+     * robot entered the field of view or the bin was swapped. Any image taken
+     * before this call is stale.
+     */
+    public void invalidateScene() {
+        sceneVersion.incrementAndGet();
+    }
+
+    /**
+     * Called when the bin contents moved in a way the vision system could not
+     * foresee: a failed or collided pick, a bin swap, a refill. Discards the
+     * queued parts of the last capture and the current scene.
+     * <p>
+     * Regular picks do not disturb the bin; the remaining candidates from
+     * GET_NEXT_PART_POS stay valid across them. Operators report a refill
+     * with the console command {@code bin}.
+     */
+    public void signalBinDisturbed() {
+        partQueue.invalidate();
+        invalidateScene();
+    }
+
+    /**
+     * Parts located in the last capture and not yet handed out.
+     */
+    public PoseQueue getPartQueue() {
+        return partQueue;
+    }
+
+    public long getSceneVersion() {
+        return sceneVersion.get();
+    }
+
+    /**
+     * True if the camera has been clear since the current scene version began.
+     */
+    public boolean isCameraClear() {
+        return clearVersion == sceneVersion.get();
     }
 
     // --- Getters ---
+    // Each reads the latest snapshot on its own; use getLatest() for a consistent pose.
+
+    public long getCaptureMillis() { return latest != null ? latest.getCaptureMillis() : 0L; }
 
-    public double getX() { return x; }
-    public double getY() { return y; }
-    public double getZ() { return z; }
-    public double getRx() { return rx; }
-    public double getRy() { return ry; }
-    public double getRz() { return rz; }
+    public double getX() { return latest != null ? latest.getX() : 0.0; }
+    public double getY() { return latest != null ? latest.getY() : 0.0; }
+    public double getZ() { return latest != null ? latest.getZ() : 0.0; }
+    public double getRx() { return latest != null ? latest.getRx() : 0.0; }
+    public double getRy() { return latest != null ? latest.getRy() : 0.0; }
+    public double getRz() { return latest != null ? latest.getRz() : 0.0; }
 }
\ No newline at end of file
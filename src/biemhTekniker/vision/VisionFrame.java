@@ -0,0 +1,54 @@
+package biemhTekniker.vision;
+
+/**
+ * Read-only view of one vision server reply inside the decoder's receive
+ * buffer. The view is reused for every reply, so callers must copy anything
+ * they want to keep before the next exchange.
+ */
+public class VisionFrame implements CharSequence {
+
+    private byte[] _buffer;
+    private int _offset;
+    private int _length;
+
+    void set(byte[] buffer, int offset, int length) {
+        this._buffer = buffer;
+        this._offset = offset;
+        this._length = length;
+    }
+
+    public byte[] buffer() { return _buffer; }
+    public int offset() { return _offset; }
+
+    @Override
+    public int length() {
+        return _length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= _length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + _length);
+        }
+        return (char) (_buffer[_offset + index] & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > _length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + _length);
+        }
+        VisionFrame sub = new VisionFrame();
+        sub.set(_buffer, _offset + start, end - start);
+        return sub;
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[_length];
+        for (int i = 0; i < _length; i++) {
+            chars[i] = (char) (_buffer[_offset + i] & 0xFF);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,126 @@
+package biemhTekniker.vision;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits the vision server's byte stream into replies.
+ * <p>
+ * TCP may deliver a reply in several reads or several replies in one read,
+ * so bytes are accumulated in one reusable buffer and a frame is cut at each
+ * delimiter (the closing parenthesis by default). Bytes after the delimiter
+ * stay buffered for the next frame. Leading whitespace such as the CR/LF some
+ * servers send between replies is skipped.
+ */
+public class VisionFrameDecoder {
+
+    public static final byte DEFAULT_DELIMITER = ')';
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final byte[] _buffer;
+    private final ByteBuffer _channelView;
+    private final byte _delimiter;
+    private int _start = 0;
+    private int _end = 0;
+    private int _scan = 0;
+
+    public VisionFrameDecoder() {
+        this(DEFAULT_DELIMITER, DEFAULT_CAPACITY);
+    }
+
+    public VisionFrameDecoder(byte delimiter, int capacity) {
+        this._delimiter = delimiter;
+        this._buffer = new byte[capacity];
+        this._channelView = ByteBuffer.wrap(_buffer);
+    }
+
+    public int capacity() {
+        return _buffer.length;
+    }
+
+    /**
+     * Cuts the next complete frame out of the buffered bytes.
+     *
+     * @return false if no complete frame is buffered yet
+     */
+    public boolean nextFrame(VisionFrame frame) {
+        while (_start < _end && isWhitespace(_buffer[_start])) {
+            _start++;
+        }
+        if (_scan < _start) _scan = _start;
+        for (; _scan < _end; _scan++) {
+            if (_buffer[_scan] == _delimiter) {
+                frame.set(_buffer, _start, _scan + 1 - _start);
+                _start = ++_scan;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads whatever the stream delivers in one call into the buffer.
+     *
+     * @return the number of bytes read, or -1 at end of stream
+     * @throws IOException if a single frame does not fit into the buffer
+     */
+    public int readFrom(InputStream in) throws IOException {
+        makeRoom();
+        int n = in.read(_buffer, _end, _buffer.length - _end);
+        if (n > 0) _end += n;
+        return n;
+    }
+
+    /**
+     * Non-blocking variant of {@link #readFrom(InputStream)} for NIO channels.
+     *
+     * @return the number of bytes read (0 if none were available), or -1 at end of stream
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        makeRoom();
+        _channelView.limit(_buffer.length);
+        _channelView.position(_end);
+        int n = channel.read(_channelView);
+        if (n > 0) _end += n;
+        return n;
+    }
+
+    /**
+     * Number of buffered bytes that are not yet part of a returned frame.
+     */
+    public int buffered() {
+        return _end - _start;
+    }
+
+    /**
+     * Forgets all buffered bytes, e.g. a late reply to an abandoned command.
+     */
+    public void reset() {
+        _start = 0;
+        _end = 0;
+        _scan = 0;
+    }
+
+    private void makeRoom() throws IOException {
+        if (_start == _end) {
+            reset();
+            return;
+        }
+        if (_end < _buffer.length) return;
+        if (_start == 0) {
+            reset();
+            throw new IOException("Vision reply exceeds " + _buffer.length + " bytes without delimiter");
+        }
+        int pending = _end - _start;
+        System.arraycopy(_buffer, _start, _buffer, 0, pending);
+        _scan -= _start;
+        _start = 0;
+        _end = pending;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\r' || b == '\n' || b == '\t';
+    }
+}
@@ -0,0 +1,16 @@
+package biemhTekniker.vision;
+
+/**
+ * The PLC handshake signals used by {@link SmartPickingWorker}. On the robot
+ * this wraps the generated Vision I/O groups; tools provide in-memory versions.
+ */
+public interface VisionIO {
+    boolean getRunMode();
+    boolean getCalibrationMode();
+    boolean getDataRequest();
+    boolean getCalibrationRequest();
+
+    void setDataRequestSent(boolean value);
+    void setPickPositionReady(boolean value);
+    void setCalibrationComplete(boolean value);
+}
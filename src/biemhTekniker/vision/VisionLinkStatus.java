@@ -0,0 +1,52 @@
+package biemhTekniker.vision;
+
+/**
+ * Immutable state of the vision link, published through {@link VisionDataBridge}.
+ */
+public final class VisionLinkStatus {
+
+    public enum State {
+        /** Not connected; reconnect attempts are running with backoff. */
+        DOWN,
+        /** Connected and answering within the expected time. */
+        UP,
+        /** Connected, but the last keepalive probe was slow. */
+        DEGRADED
+    }
+
+    private final State state;
+    private final long sinceMillis;
+    private final long lastRttMicros;
+    private final int failedConnects;
+
+    VisionLinkStatus(State state, long sinceMillis, long lastRttMicros, int failedConnects) {
+        this.state = state;
+        this.sinceMillis = sinceMillis;
+        this.lastRttMicros = lastRttMicros;
+        this.failedConnects = failedConnects;
+    }
+
+    public State getState() { return state; }
+
+    /**
+     * When the link entered its current state.
+     */
+    public long getSinceMillis() { return sinceMillis; }
+
+    /**
+     * Round-trip time of the last keepalive probe, or -1 if none completed yet.
+     */
+    public long getLastRttMicros() { return lastRttMicros; }
+
+    /**
+     * Connect attempts that failed since the link was last up.
+     */
+    public int getFailedConnects() { return failedConnects; }
+
+    public boolean isUp() { return state != State.DOWN; }
+
+    @Override
+    public String toString() {
+        return state + " since " + sinceMillis + ", rtt " + lastRttMicros + " us, failed connects " + failedConnects;
+    }
+}
@@ -0,0 +1,118 @@
+package biemhTekniker.vision;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One command sent through {@link VisionSocketClient#send}. Completes exactly
+ * once: with a reply, a failure, a timeout or a cancellation.
+ * <p>
+ * The reply frame stays valid until the next command is sent on the same client.
+ */
+public class VisionRequest {
+
+    /**
+     * Called on the thread that completes the request, normally the client's
+     * I/O thread, or the caller of {@link #cancel()}. Keep it short.
+     */
+    public interface Callback {
+        void onComplete(VisionRequest request);
+    }
+
+    public enum State {
+        PENDING,
+        SUCCEEDED,
+        FAILED,
+        TIMED_OUT,
+        CANCELLED
+    }
+
+    private final String _message;
+    private final long _timeoutMs;
+    private final Callback _callback;
+    private final VisionSocketClient _client;
+    private final CountDownLatch _done = new CountDownLatch(1);
+    private final AtomicInteger _state = new AtomicInteger(State.PENDING.ordinal());
+    private final long _createdNanos = System.nanoTime();
+    private volatile VisionFrame _frame;
+    private volatile String _failure;
+    private volatile long _completedNanos;
+    long _deadlineNanos;
+    boolean _sent;
+
+    VisionRequest(VisionSocketClient client, String message, long timeoutMs, Callback callback) {
+        this._client = client;
+        this._message = message;
+        this._timeoutMs = timeoutMs;
+        this._callback = callback;
+    }
+
+    public String getMessage() { return _message; }
+    public long getTimeoutMs() { return _timeoutMs; }
+    public State getState() { return State.values()[_state.get()]; }
+    public boolean isDone() { return _done.getCount() == 0; }
+    public boolean isSuccess() { return getState() == State.SUCCEEDED; }
+    public String getFailure() { return _failure; }
+
+    /**
+     * Round-trip time from submission to completion, or -1 while pending.
+     */
+    public long getElapsedNanos() {
+        return isDone() ? _completedNanos - _createdNanos : -1L;
+    }
+
+    /**
+     * Waits for completion.
+     *
+     * @return true if the request completed within the timeout
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return _done.await(timeout, unit);
+    }
+
+    /**
+     * Blocks until the request completes.
+     *
+     * @return the reply, or null if the request did not succeed
+     */
+    public VisionFrame get() throws InterruptedException {
+        _done.await();
+        return _frame;
+    }
+
+    /**
+     * Abandons the request. The server's late reply, if any, is discarded.
+     *
+     * @return false if the request had already completed
+     */
+    public boolean cancel() {
+        if (!finish(State.CANCELLED, null, "cancelled")) return false;
+        _client.onCancelled(this);
+        return true;
+    }
+
+    boolean succeed(VisionFrame frame) {
+        return finish(State.SUCCEEDED, frame, null);
+    }
+
+    boolean fail(State state, String reason) {
+        return finish(state, null, reason);
+    }
+
+    private boolean finish(State state, VisionFrame frame, String failure) {
+        if (!_state.compareAndSet(State.PENDING.ordinal(), state.ordinal())) return false;
+        _frame = frame;
+        _failure = failure;
+        _completedNanos = System.nanoTime();
+        _done.countDown();
+        if (_callback != null) {
+            try {
+                _callback.onComplete(this);
+            } catch (RuntimeException ignored) {
+                // A broken callback must not take the I/O thread down
+            }
+        }
+        return true;
+    }
+}
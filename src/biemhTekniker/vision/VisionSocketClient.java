@@ -1,91 +1,452 @@
 package biemhTekniker.vision;
 
 import biemhTekniker.logger.Logger;
-import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Standardized TCP Client for Vision System communication.
- * Compatible with Java 1.6.
+ * Compatible with Java 1.7.
+ * <p>
+ * Non-blocking: a dedicated I/O thread owns the {@link SocketChannel} and a
+ * {@link Selector}. {@link #send} queues a command and returns a
+ * {@link VisionRequest} right away; each request carries its own deadline and
+ * can be cancelled. {@link #close()} fails the request in flight immediately,
+ * so shutdown never waits for a slow command.
+ * <p>
+ * Replies are cut out of the stream by a {@link VisionFrameDecoder}, so a
+ * reply split over several TCP segments, or glued to the next one, is still
+ * handed over as exactly one frame. The server answers in order, so the
+ * reply to a cancelled command is recognised by position and dropped; if it
+ * does not arrive before that command's deadline the link is reset.
+ * <p>
+ * Only one command may be in flight at a time, matching the server protocol.
+ * <p>
+ * With a {@link VisionCapture} attached, the I/O thread records all traffic
+ * for offline replay.
  */
 public class VisionSocketClient {
     private static final Logger log = Logger.getLogger(VisionSocketClient.class);
 
-    private Socket socket;
-    private InputStream in;
-    private PrintWriter out;
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+
     private final String ip;
     private final int port;
-    private final int timeout = 5000;
+    private volatile int timeout = 5000;
+    private final VisionFrameDecoder _decoder;
+    private final VisionFrame _frame = new VisionFrame();
+    private final VisionFrame _reply = new VisionFrame();
+    private final byte[] _replyBytes;
+    private final ByteBuffer _writeBuffer = ByteBuffer.allocate(1024);
+
+    private final Object _lock = new Object();
+    private final ConcurrentLinkedQueue<VisionRequest> _submitted = new ConcurrentLinkedQueue<VisionRequest>();
+    private final ArrayDeque<Long> _abandonedDeadlines = new ArrayDeque<Long>();
+
+    private Selector _selector;
+    private Thread _ioThread;
+    private volatile SocketChannel _channel;
+    private volatile boolean _channelChanged = false;
+    private volatile VisionRequest _inFlight;
+    private volatile boolean _running = true;
+    private volatile long _lastReplyNanos = System.nanoTime();
+    private volatile VisionCapture _capture;
+    private SelectionKey _key;
 
     public VisionSocketClient(String ip, int port) {
+        this(ip, port, VisionFrameDecoder.DEFAULT_DELIMITER);
+    }
+
+    public VisionSocketClient(String ip, int port, byte frameDelimiter) {
         this.ip = ip;
         this.port = port;
+        this._decoder = new VisionFrameDecoder(frameDelimiter, VisionFrameDecoder.DEFAULT_CAPACITY);
+        this._replyBytes = new byte[_decoder.capacity()];
     }
 
     public boolean connect() {
         close();
+        SocketChannel channel = null;
         try {
-            socket = new Socket();
-            socket.setReuseAddress(true);
-            socket.connect(new InetSocketAddress(ip, port), timeout);
-            socket.setSoTimeout(10000);
+            startIoThread();
+            channel = SocketChannel.open();
+            channel.socket().setReuseAddress(true);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            // Blocking connect with timeout on the caller's thread, then hand over to the I/O thread
+            channel.socket().connect(new InetSocketAddress(ip, port), timeout);
+            channel.configureBlocking(false);
 
-            in = socket.getInputStream();
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "US-ASCII"), true);
+            synchronized (_lock) {
+                _channel = channel;
+                _channelChanged = true;
+            }
+            _selector.wakeup();
 
+            _lastReplyNanos = System.nanoTime();
             log.info("Connected to Vision Server at " + ip + ":" + port);
             return true;
         } catch (Exception e) {
             log.error("Failed to connect to " + ip + ": " + e.getMessage());
+            closeQuietly(channel);
             return false;
         }
     }
 
+    public void setConnectTimeout(int millis) {
+        this.timeout = millis;
+    }
+
+    /**
+     * Starts recording the traffic into {@code capture}, or stops with null.
+     * The caller closes the capture.
+     */
+    public void setCapture(VisionCapture capture) {
+        this._capture = capture;
+        if (capture != null && isConnected()) {
+            capture.recordConnect();
+        }
+    }
+
+    /**
+     * Time since the last reply arrived, or since the connection was made.
+     */
+    public long getIdleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _lastReplyNanos);
+    }
+
+    /**
+     * Queues a command for sending.
+     *
+     * @param timeoutMs time allowed for the whole round trip
+     * @param callback optional, invoked on completion
+     * @throws IllegalStateException if another command is still in flight
+     */
+    public VisionRequest send(String message, long timeoutMs, VisionRequest.Callback callback) {
+        VisionRequest request = new VisionRequest(this, message, timeoutMs, callback);
+        request._deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (_lock) {
+            if (_inFlight != null && !_inFlight.isDone()) {
+                throw new IllegalStateException("Command " + _inFlight.getMessage() + " is still in flight");
+            }
+            if (_channel == null) {
+                request.fail(VisionRequest.State.FAILED, "not connected");
+                return request;
+            }
+            _inFlight = request;
+            _submitted.add(request);
+        }
+        _selector.wakeup();
+        return request;
+    }
+
     public String sendAndReceive(String message) {
+        VisionFrame frame = exchange(message);
+        return (frame != null) ? frame.toString() : null;
+    }
+
+    /**
+     * Sends a command and waits for one complete reply.
+     *
+     * @return a view of the reply that stays valid until the next exchange,
+     *         or null if the connection failed
+     */
+    public VisionFrame exchange(String message) {
+        return exchange(message, DEFAULT_TIMEOUT_MS);
+    }
+
+    public VisionFrame exchange(String message, long timeoutMs) {
         if (!isConnected()) {
             return null;
         }
-
         try {
-            out.print(message);
-            out.flush();
-            byte[] buffer = new byte[2048];
-            int bytesRead = in.read(buffer);
-
-            if (bytesRead > 0) {
-                String result = new String(buffer, 0, bytesRead, "US-ASCII");
-                return result;
-            } else {
-                log.warn("Connection closed by remote host.");
-                close();
-                return null;
-            }
-        } catch (IOException e) {
-            log.error("Communication error: " + e.getMessage());
-            close();
+            return send(message, timeoutMs, null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
         }
     }
 
     public boolean isConnected() {
-        return socket != null && socket.isConnected() && !socket.isClosed();
+        SocketChannel channel = _channel;
+        return channel != null && channel.isOpen() && channel.isConnected();
     }
 
+    /**
+     * Closes the connection and fails the command in flight. The I/O thread keeps
+     * running so the client can reconnect; use {@link #shutdown()} to stop it.
+     */
     public void close() {
+        SocketChannel channel;
+        synchronized (_lock) {
+            channel = _channel;
+            _channel = null;
+            _channelChanged = true;
+        }
+        closeQuietly(channel);
+        VisionCapture capture = _capture;
+        if (capture != null && channel != null) {
+            capture.recordDisconnect("connection closed");
+        }
+        failPending("connection closed");
+        if (_selector != null) {
+            _selector.wakeup();
+        }
+    }
+
+    public void shutdown() {
+        _running = false;
+        close();
+    }
+
+    void onCancelled(VisionRequest request) {
+        if (_selector != null) {
+            _selector.wakeup();
+        }
+    }
+
+    // --- I/O thread ---
+
+    private synchronized void startIoThread() throws IOException {
+        if (_ioThread != null) return;
+        _selector = Selector.open();
+        _ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ioLoop();
+            }
+        }, "VisionSocketClient-IO");
+        _ioThread.setDaemon(true);
+        _ioThread.start();
+    }
+
+    private void ioLoop() {
+        VisionRequest current = null;
         try {
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (socket != null) socket.close();
-        } catch (IOException ignored) {
+            while (_running) {
+                if (_channelChanged) {
+                    current = adoptChannel(current);
+                }
+                if (current != null && current.isDone()) {
+                    current = abandon(current);
+                }
+                if (current == null) {
+                    current = nextSubmitted();
+                }
+
+                long now = System.nanoTime();
+                long waitNanos = TimeUnit.SECONDS.toNanos(1);
+                if (current != null) {
+                    if (now >= current._deadlineNanos) {
+                        current.fail(VisionRequest.State.TIMED_OUT, "no reply within " + current.getTimeoutMs() + " ms");
+                        log.warn("Command %s timed out after %d ms.", current.getMessage(), current.getTimeoutMs());
+                        resetConnection("command timed out");
+                        current = null;
+                        continue;
+                    }
+                    waitNanos = Math.min(waitNanos, current._deadlineNanos - now);
+                }
+                if (!_abandonedDeadlines.isEmpty()) {
+                    long deadline = _abandonedDeadlines.peekFirst();
+                    if (now >= deadline) {
+                        resetConnection("no reply to a cancelled command");
+                        current = failCurrent(current, "connection reset");
+                        continue;
+                    }
+                    waitNanos = Math.min(waitNanos, deadline - now);
+                }
+
+                if (_key == null || !_key.isValid()) {
+                    _selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                    _selector.selectedKeys().clear();
+                    continue;
+                }
+                try {
+                    // Write a new command right away; the wakeup from send() may already be used up
+                    if (current != null && !current._sent) {
+                        current._sent = writeMessage(current);
+                    }
+                    _selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                    _selector.selectedKeys().clear();
+                    if (_key == null || !_key.isValid()) continue;
+                    if (current != null) {
+                        flushWrite();
+                    }
+                    current = readReplies(current);
+                } catch (IOException e) {
+                    log.error("Communication error: " + e.getMessage());
+                    resetConnection(e.getMessage());
+                    current = failCurrent(current, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.error("Vision I/O thread stopped: %s", e.getMessage());
+        } catch (ClosedSelectorException ignored) {
         } finally {
-            in = null;
-            out = null;
-            socket = null;
+            failCurrent(current, "client shut down");
+            failPending("client shut down");
+            try { _selector.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private VisionRequest adoptChannel(VisionRequest current) throws IOException {
+        SocketChannel channel;
+        synchronized (_lock) {
+            channel = _channel;
+            _channelChanged = false;
+        }
+        if (_key != null) {
+            _key.cancel();
+            _key = null;
+        }
+        _decoder.reset();
+        _abandonedDeadlines.clear();
+        _writeBuffer.clear().flip();
+        current = failCurrent(current, "connection changed");
+        if (channel != null) {
+            // Flush the cancelled key out of the selector before registering again
+            _selector.selectNow();
+            _key = channel.register(_selector, SelectionKey.OP_READ);
+            VisionCapture capture = _capture;
+            if (capture != null) {
+                capture.recordConnect();
+            }
+        }
+        return current;
+    }
+
+    private VisionRequest nextSubmitted() {
+        VisionRequest request;
+        while ((request = _submitted.poll()) != null) {
+            if (!request.isDone()) return request;
+        }
+        return null;
+    }
+
+    // A request that completed without its reply (cancelled) still owns the next reply
+    private VisionRequest abandon(VisionRequest request) {
+        if (request._sent && request.getState() == VisionRequest.State.CANCELLED) {
+            _abandonedDeadlines.addLast(request._deadlineNanos);
+        }
+        return null;
+    }
+
+    private boolean writeMessage(VisionRequest request) throws IOException {
+        String message = request.getMessage();
+        if (message.length() > _writeBuffer.capacity()) {
+            throw new IOException("Command too long: " + message.length() + " bytes");
+        }
+        _writeBuffer.clear();
+        for (int i = 0; i < message.length(); i++) {
+            _writeBuffer.put((byte) message.charAt(i));
+        }
+        _writeBuffer.flip();
+        VisionCapture capture = _capture;
+        if (capture != null) {
+            capture.recordSend(_writeBuffer.array(), 0, _writeBuffer.limit());
+        }
+        flushWrite();
+        return true;
+    }
+
+    private void flushWrite() throws IOException {
+        if (!_writeBuffer.hasRemaining()) {
+            _key.interestOps(SelectionKey.OP_READ);
+            return;
+        }
+        ((SocketChannel) _key.channel()).write(_writeBuffer);
+        _key.interestOps(_writeBuffer.hasRemaining()
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private VisionRequest readReplies(VisionRequest current) throws IOException {
+        SocketChannel channel = (SocketChannel) _key.channel();
+        int n;
+        while ((n = _decoder.readFrom(channel)) > 0) {
+            while (_decoder.nextFrame(_frame)) {
+                _lastReplyNanos = System.nanoTime();
+                VisionCapture capture = _capture;
+                if (capture != null) {
+                    capture.recordReply(_frame.buffer(), _frame.offset(), _frame.length());
+                }
+                if (!_abandonedDeadlines.isEmpty()) {
+                    _abandonedDeadlines.pollFirst();
+                    log.debug("Discarded reply to a cancelled command: %s", _frame.toString());
+                } else if (current != null && current._sent) {
+                    // Copy out so the decoder can keep reading while the caller parses
+                    System.arraycopy(_frame.buffer(), _frame.offset(), _replyBytes, 0, _frame.length());
+                    _reply.set(_replyBytes, 0, _frame.length());
+                    current.succeed(_reply);
+                    current = null;
+                } else {
+                    log.warn("Discarding unsolicited reply: %s", _frame.toString());
+                }
+            }
+        }
+        if (n < 0) {
+            log.warn("Connection closed by remote host.");
+            resetConnection("closed by remote host");
+            current = failCurrent(current, "connection closed by remote host");
+        }
+        return current;
+    }
+
+    private VisionRequest failCurrent(VisionRequest current, String reason) {
+        if (current != null) {
+            current.fail(VisionRequest.State.FAILED, reason);
+        }
+        return null;
+    }
+
+    private void failPending(String reason) {
+        VisionRequest inFlight = _inFlight;
+        if (inFlight != null) {
+            inFlight.fail(VisionRequest.State.FAILED, reason);
+        }
+        VisionRequest queued;
+        while ((queued = _submitted.poll()) != null) {
+            queued.fail(VisionRequest.State.FAILED, reason);
+        }
+    }
+
+    // Called on the I/O thread when the reply order can no longer be trusted
+    private void resetConnection(String reason) {
+        SocketChannel channel = null;
+        synchronized (_lock) {
+            if (_key != null && _key.channel() == _channel) {
+                channel = _channel;
+                _channel = null;
+                _channelChanged = true;
+            }
+        }
+        if (channel != null) {
+            log.warn("Resetting vision connection: %s", reason);
+            closeQuietly(channel);
+            VisionCapture capture = _capture;
+            if (capture != null) {
+                capture.recordDisconnect(reason);
+            }
+        }
+        if (_key != null) {
+            _key.cancel();
+            _key = null;
+        }
+        _abandonedDeadlines.clear();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,236 @@
+import biemhTekniker.config.RobotConfig;
+import biemhTekniker.vision.LatencyHistogram;
+import biemhTekniker.vision.SmartPickingWorker;
+import biemhTekniker.vision.VisionDataBridge;
+import biemhTekniker.vision.VisionIO;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Headless pick-cycle harness: runs {@link SmartPickingWorker} against an
+ * in-memory PLC and the vision simulator, and reports how many
+ * DataRequest/PickPositionReady handshakes per second the loop sustains.
+ * <pre>
+ *   javac -sourcepath ../../src:../simulator -d out PickCycleHarness.java
+ *   java -cp out PickCycleHarness [harness.properties]
+ * </pre>
+ * The properties file is passed to the worker (vision.* keys), the simulator
+ * (latency.*, parts.* ...) and the harness itself:
+ * <pre>
+ *   harness.durationSec     measured run time, default 30
+ *   harness.warmupSec       run time before measuring, default 5
+ *   harness.port            simulator port, default 59102
+ *   harness.robotMs         time the robot needs between two DataRequests, default 0
+ *   harness.plcAckMs        PLC reaction time before dropping DataRequest, default 0
+ * </pre>
+ * Phases of one handshake, measured from the PLC raising DataRequest:
+ * ack (DataRequestSent), ready (PickPositionReady), release (outputs low after
+ * the PLC dropped DataRequest). Jitter is the spread of the full cycle.
+ */
+public class PickCycleHarness
+{
+    public static void main(String[] args) throws Exception
+    {
+        Properties config = new Properties();
+        if (args.length > 0)
+        {
+            InputStream in = new FileInputStream(args[0]);
+            try
+            {
+                config.load(in);
+            } finally
+            {
+                in.close();
+            }
+        }
+        int port = Integer.parseInt(config.getProperty("harness.port", "59102"));
+        config.setProperty("vision.ip", "127.0.0.1");
+        config.setProperty("vision.port", String.valueOf(port));
+        if (config.getProperty("stats.intervalSec") == null) config.setProperty("stats.intervalSec", "0");
+
+        startSimulator(config, port);
+
+        PlcStandIn plc = new PlcStandIn();
+        SmartPickingWorker worker = new SmartPickingWorker(plc, RobotConfig.of(config));
+        Thread workerThread = new Thread(worker, "SmartPickingWorker");
+        workerThread.start();
+
+        long warmupMs = Long.parseLong(config.getProperty("harness.warmupSec", "5")) * 1000;
+        long durationMs = Long.parseLong(config.getProperty("harness.durationSec", "30")) * 1000;
+        long robotMs = Long.parseLong(config.getProperty("harness.robotMs", "0"));
+        long plcAckMs = Long.parseLong(config.getProperty("harness.plcAckMs", "0"));
+
+        plc.setRunMode(true);
+        Results warmup = new Results();
+        runCycles(plc, warmup, warmupMs, robotMs, plcAckMs);
+        Results results = new Results();
+        long start = System.nanoTime();
+        runCycles(plc, results, durationMs, robotMs, plcAckMs);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        worker.stop();
+        workerThread.join(5000);
+        results.print(seconds);
+        System.exit(0);
+    }
+
+    private static void startSimulator(final Properties config, final int port)
+    {
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    new VisionServerSimulator(config).serve(port);
+                } catch (IOException e)
+                {
+                    System.err.println("Simulator failed: " + e.getMessage());
+                    System.exit(1);
+                }
+            }
+        }, "Vision-Simulator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void runCycles(PlcStandIn plc, Results results, long durationMs, long robotMs, long plcAckMs)
+            throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + durationMs;
+        long lastCycleStart = -1;
+        while (System.currentTimeMillis() < end)
+        {
+            long t0 = System.nanoTime();
+            plc.setDataRequest(true);
+            if (!plc.awaitReady(10000))
+            {
+                results._timeouts++;
+                plc.setDataRequest(false);
+                plc.awaitOutputsLow(10000);
+                continue;
+            }
+            long ready = plc._readyNanos;
+            if (plcAckMs > 0) Thread.sleep(plcAckMs);
+            long drop = System.nanoTime();
+            plc.setDataRequest(false);
+            plc.awaitOutputsLow(10000);
+            long released = plc._releasedNanos;
+
+            results._ack.record((plc._ackNanos - t0) / 1000);
+            results._ready.record((ready - t0) / 1000);
+            results._release.record((released - drop) / 1000);
+            if (lastCycleStart > 0) results._cycle.record((t0 - lastCycleStart) / 1000);
+            lastCycleStart = t0;
+            results._handshakes++;
+
+            // The robot picks the part and leaves the camera view
+            VisionDataBridge.get().consume();
+            if (robotMs > 0) Thread.sleep(robotMs);
+            VisionDataBridge.get().signalCameraClear();
+        }
+    }
+
+    private static final class Results
+    {
+        final LatencyHistogram _ack = new LatencyHistogram();
+        final LatencyHistogram _ready = new LatencyHistogram();
+        final LatencyHistogram _release = new LatencyHistogram();
+        final LatencyHistogram _cycle = new LatencyHistogram();
+        long _handshakes;
+        long _timeouts;
+
+        void print(double seconds)
+        {
+            System.out.println(String.format(Locale.ROOT, "handshakes: %d in %.1f s = %.2f/s (%.0f/min), timeouts: %d",
+                    _handshakes, seconds, _handshakes / seconds, _handshakes * 60 / seconds, _timeouts));
+            print("request -> ack    ", _ack);
+            print("request -> ready  ", _ready);
+            print("drop -> released  ", _release);
+            print("cycle             ", _cycle);
+            System.out.println(String.format(Locale.ROOT, "cycle jitter (p99 - p50): %.1f ms",
+                    (_cycle.getPercentileMicros(0.99) - _cycle.getPercentileMicros(0.50)) / 1000.0));
+        }
+
+        private static void print(String name, LatencyHistogram h)
+        {
+            System.out.println(String.format(Locale.ROOT, "%s p50=%8.1f p90=%8.1f p99=%8.1f max=%8.1f ms",
+                    name, h.getPercentileMicros(0.50) / 1000.0, h.getPercentileMicros(0.90) / 1000.0,
+                    h.getPercentileMicros(0.99) / 1000.0, h.getMaxMicros() / 1000.0));
+        }
+    }
+
+    /**
+     * In-memory PLC signals. Output changes are time-stamped when the worker
+     * sets them and wake the waiting PLC thread.
+     */
+    private static final class PlcStandIn implements VisionIO
+    {
+        private volatile boolean _runMode;
+        private volatile boolean _dataRequest;
+        private boolean _dataRequestSent;
+        private boolean _pickPositionReady;
+        volatile long _ackNanos;
+        volatile long _readyNanos;
+        volatile long _releasedNanos;
+
+        void setRunMode(boolean value) { _runMode = value; }
+        void setDataRequest(boolean value) { _dataRequest = value; }
+
+        public boolean getRunMode() { return _runMode; }
+        public boolean getCalibrationMode() { return false; }
+        public boolean getDataRequest() { return _dataRequest; }
+        public boolean getCalibrationRequest() { return false; }
+
+        public synchronized void setDataRequestSent(boolean value)
+        {
+            if (value && !_dataRequestSent) _ackNanos = System.nanoTime();
+            _dataRequestSent = value;
+            outputsChanged();
+        }
+
+        public synchronized void setPickPositionReady(boolean value)
+        {
+            if (value && !_pickPositionReady) _readyNanos = System.nanoTime();
+            _pickPositionReady = value;
+            outputsChanged();
+        }
+
+        public void setCalibrationComplete(boolean value) {}
+
+        private void outputsChanged()
+        {
+            if (!_dataRequestSent && !_pickPositionReady) _releasedNanos = System.nanoTime();
+            notifyAll();
+        }
+
+        synchronized boolean awaitReady(long timeoutMs) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (!_pickPositionReady)
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized boolean awaitOutputsLow(long timeoutMs) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (_dataRequestSent || _pickPositionReady)
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                wait(remaining);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package biemhTekniker.bench;
+
+import biemhTekniker.logger.ILogListener;
+import biemhTekniker.logger.LogEntry;
+import biemhTekniker.logger.LogLevel;
+import biemhTekniker.logger.LogManager;
+import biemhTekniker.logger.LogThrottle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of handing an entry to the logging pipeline on the calling thread, and
+ * of formatting one. Throttling is switched off so every entry reaches the
+ * listener; when the dispatch ring is full, entries are dropped and counted
+ * rather than blocking, which shows up as the dropped figure after each run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerBenchmark
+{
+    private final AtomicLong _received = new AtomicLong(0);
+    private final ILogListener _listener = new ILogListener()
+    {
+        @Override
+        public void onNewLog(LogEntry entry)
+        {
+            _received.incrementAndGet();
+        }
+    };
+    private LogEntry _entry;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        LogManager.getThrottle().setRule(LogThrottle.ANY_SOURCE, null, 0, false);
+        LogManager.register(_listener);
+        _entry = new LogEntry(LogLevel.INFO, "SmartPickingProtocol", "Part found at X=0.1234, Y=-0.5678");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        LogManager.flush(1000);
+        LogManager.unregister(_listener);
+        System.out.println("received " + _received.get() + ", dropped " + LogManager.getDroppedCount());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void broadcast1Thread()
+    {
+        LogManager.broadcast(_entry);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void broadcast2Threads()
+    {
+        LogManager.broadcast(_entry);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void broadcast4Threads()
+    {
+        LogManager.broadcast(_entry);
+    }
+
+    @Benchmark
+    public String entryToString()
+    {
+        return _entry.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package biemhTekniker.bench;
+
+import biemhTekniker.vision.PoseSnapshot;
+import biemhTekniker.vision.VisionDataBridge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread publishing poses while three others read them, as the vision
+ * task and the robot application do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class VisionDataBridgeBenchmark
+{
+    private final VisionDataBridge _bridge = VisionDataBridge.get();
+    private double _value;
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public PoseSnapshot update()
+    {
+        _value += 0.001;
+        return _bridge.update(_value, _value, _value, _value, _value, _value);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public double read()
+    {
+        PoseSnapshot pose = _bridge.getLatest();
+        return (pose != null) ? pose.getX() + pose.getRz() : 0.0;
+    }
+}
@@ -0,0 +1,86 @@
+package biemhTekniker.bench;
+
+import biemhTekniker.vision.SmartPickingProtocol.Command;
+import biemhTekniker.vision.SmartPickingProtocol.VisionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reply parsing, reusing one result as SmartPickingProtocol does, with a
+ * fresh result per reply as external callers do, and with the original
+ * replace/split/parseDouble parser for comparison. Run with {@code -prof gc}
+ * for bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VisionResultBenchmark
+{
+    @Param({
+            "(0,1,512.3456,-245.8812,133.0500,179.9021,-0.4512,87.2301,0,0,0,0.8834)",
+            "(0,1,0,0,0,0.4123,-0.0871,0.2250,3.1402,0.0021,-0.0153,0.9712)",
+            "(1)"
+    })
+    public String reply;
+
+    private final VisionResult _result = new VisionResult();
+
+    @Benchmark
+    public double parseReused()
+    {
+        _result.parse(reply, Command.GET_PART_POS, false);
+        return _result.getX();
+    }
+
+    @Benchmark
+    public double parseNew()
+    {
+        return new VisionResult(reply, Command.GET_PART_POS, false).getX();
+    }
+
+    @Benchmark
+    public double parseLegacy(Blackhole blackhole)
+    {
+        double[] data = legacyParse(reply, blackhole);
+        return data.length > 2 ? data[2] : 0.0;
+    }
+
+    // The VisionResult(String, Command) constructor before the single-pass parser
+    private static double[] legacyParse(String rawResponse, Blackhole blackhole)
+    {
+        if (rawResponse == null || rawResponse.isEmpty())
+        {
+            blackhole.consume(false);
+            return new double[0];
+        }
+        String cleaned = rawResponse.replace("(", "").replace(")", "").trim();
+        String[] parts = cleaned.split(",");
+        blackhole.consume(parts[0].trim().equals("0"));
+        double[] data = new double[parts.length];
+        for (int i = 0; i < parts.length; i++)
+        {
+            try
+            {
+                data[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e)
+            {
+                data[i] = 0.0;
+            }
+        }
+        return data;
+    }
+}
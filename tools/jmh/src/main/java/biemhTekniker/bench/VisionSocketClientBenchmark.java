@@ -0,0 +1,98 @@
+package biemhTekniker.bench;
+
+import biemhTekniker.vision.VisionSocketClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full client round trip over loopback: the server answers every read with a
+ * fixed part-pose reply, so the numbers are client stack plus kernel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VisionSocketClientBenchmark
+{
+    private static final byte[] REPLY =
+            "(0,1,512.3456,-245.8812,133.0500,179.9021,-0.4512,87.2301,0,0,0,0.8834)".getBytes();
+
+    private ServerSocket _server;
+    private Thread _serverThread;
+    private VisionSocketClient _client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        _server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        _serverThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                serve();
+            }
+        }, "Loopback-Vision-Server");
+        _serverThread.setDaemon(true);
+        _serverThread.start();
+
+        _client = new VisionSocketClient("127.0.0.1", _server.getLocalPort());
+        if (!_client.connect())
+        {
+            throw new IllegalStateException("Cannot connect to the loopback server");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        _client.shutdown();
+        _server.close();
+    }
+
+    @Benchmark
+    public String sendAndReceive()
+    {
+        return _client.sendAndReceive("9");
+    }
+
+    private void serve()
+    {
+        try
+        {
+            Socket socket = _server.accept();
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] buffer = new byte[256];
+            while (in.read(buffer) > 0)
+            {
+                out.write(REPLY);
+                out.flush();
+            }
+        } catch (IOException ignored)
+        {
+            // Closed in tearDown
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import biemhTekniker.vision.VisionCapture;
+import biemhTekniker.vision.VisionCaptureReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares two vision captures, typically the production recording and the
+ * capture taken while replaying it with {@link VisionReplayServer}:
+ * <pre>
+ *   java -cp out VisionCaptureDiff original.bvc replayed.bvc
+ * </pre>
+ * Exchanges (a command and the replies to it) are compared byte for byte;
+ * connection records and timing are not. Keepalive probes depend on idle time,
+ * so the exchanges are aligned the way the replay server resyncs: a run of one
+ * command that only one side has, followed by the other side's next command
+ * within a few exchanges, is reported as skipped (only in the original) or
+ * extra (only in the replay) instead of as a difference. Prints the first
+ * differences, the command throughput of both sessions and the mean round trip
+ * per command code. Exits with 1 if the traffic differs.
+ */
+public class VisionCaptureDiff {
+
+    private static final int MAX_REPORTED = 10;
+    // Same look-ahead as VisionReplayServer
+    private static final int RESYNC_WINDOW = 8;
+
+    private static final class Exchange {
+        byte[] command;
+        final List<byte[]> replies = new ArrayList<byte[]>();
+    }
+
+    private static final class Session {
+        final List<Exchange> exchanges = new ArrayList<Exchange>();
+        final List<String> codes = new ArrayList<String>();
+        final List<Long> roundTrips = new ArrayList<Long>();
+        long firstSend = -1;
+        long lastReply = -1;
+        int commands;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: VisionCaptureDiff original.bvc replayed.bvc");
+            System.exit(2);
+        }
+        Session a = load(new File(args[0]));
+        Session b = load(new File(args[1]));
+        List<Exchange> x = a.exchanges;
+        List<Exchange> y = b.exchanges;
+
+        int differences = 0;
+        int skipped = 0;
+        int extra = 0;
+        int i = 0;
+        int j = 0;
+        while (i < x.size() && j < y.size()) {
+            if (Arrays.equals(x.get(i).command, y.get(j).command)) {
+                if (!sameReplies(x.get(i), y.get(j)) && differences++ < MAX_REPORTED) {
+                    System.out.println("Exchange " + i + "/" + j + ":\n  < " + describe(x.get(i))
+                            + "\n  > " + describe(y.get(j)));
+                }
+                i++;
+                j++;
+                continue;
+            }
+            int run = runBefore(x, i, y.get(j).command);
+            if (run > 0) {
+                skipped += run;
+                i += run;
+                continue;
+            }
+            run = runBefore(y, j, x.get(i).command);
+            if (run > 0) {
+                extra += run;
+                j += run;
+                continue;
+            }
+            if (differences++ < MAX_REPORTED) {
+                System.out.println("Exchange " + i + "/" + j + ":\n  < " + describe(x.get(i))
+                        + "\n  > " + describe(y.get(j)));
+            }
+            i++;
+            j++;
+        }
+        // A trailing run of one command is an idle period at the end of a session
+        int restA = x.size() - i;
+        int restB = y.size() - j;
+        if (restA > 0 && isRun(x, i, x.size())) {
+            skipped += restA;
+        } else if (restA > 0) {
+            differences += restA;
+            System.out.println(restA + " exchange(s) at the end only in " + args[0]);
+        }
+        if (restB > 0 && isRun(y, j, y.size())) {
+            extra += restB;
+        } else if (restB > 0) {
+            differences += restB;
+            System.out.println(restB + " exchange(s) at the end only in " + args[1]);
+        }
+
+        print(args[0], a);
+        print(args[1], b);
+        System.out.println(skipped + " exchange(s) skipped in the replay, " + extra + " extra in the replay.");
+        System.out.println(differences == 0 ? "Traffic identical." : differences + " exchange(s) differ.");
+        System.exit(differences == 0 ? 0 : 1);
+    }
+
+    /**
+     * Length of the run of one command starting at {@code from} that is directly
+     * followed by {@code next}, or 0 if there is none within the look-ahead.
+     */
+    private static int runBefore(List<Exchange> exchanges, int from, byte[] next) {
+        int limit = Math.min(exchanges.size(), from + RESYNC_WINDOW);
+        for (int k = from + 1; k < limit; k++) {
+            if (!Arrays.equals(exchanges.get(k - 1).command, exchanges.get(from).command)) return 0;
+            if (Arrays.equals(exchanges.get(k).command, next)) return k - from;
+        }
+        return 0;
+    }
+
+    private static boolean isRun(List<Exchange> exchanges, int from, int to) {
+        for (int k = from + 1; k < to; k++) {
+            if (!Arrays.equals(exchanges.get(k).command, exchanges.get(from).command)) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameReplies(Exchange a, Exchange b) {
+        if (a.replies.size() != b.replies.size()) return false;
+        for (int k = 0; k < a.replies.size(); k++) {
+            if (!Arrays.equals(a.replies.get(k), b.replies.get(k))) return false;
+        }
+        return true;
+    }
+
+    private static Session load(File file) throws IOException {
+        VisionCaptureReader reader = VisionCaptureReader.open(file);
+        Session session = new Session();
+        Exchange current = null;
+        String pendingCode = null;
+        long pendingSent = 0;
+        while (reader.next()) {
+            byte type = reader.getType();
+            if (type == VisionCapture.RECORD_SEND) {
+                current = new Exchange();
+                current.command = reader.getPayloadBytes();
+                session.exchanges.add(current);
+                String command = reader.getPayloadText();
+                int semicolon = command.indexOf(';');
+                pendingCode = (semicolon >= 0) ? command.substring(0, semicolon) : command;
+                pendingSent = reader.getNanos();
+                if (session.firstSend < 0) session.firstSend = pendingSent;
+                session.commands++;
+            } else if (type == VisionCapture.RECORD_REPLY) {
+                session.lastReply = reader.getNanos();
+                // Replies before the first command have nothing to answer
+                if (current != null) {
+                    current.replies.add(reader.getPayloadBytes());
+                }
+                if (pendingCode != null) {
+                    session.codes.add(pendingCode);
+                    session.roundTrips.add(reader.getNanos() - pendingSent);
+                    pendingCode = null;
+                }
+            }
+        }
+        return session;
+    }
+
+    private static void print(String name, Session session) {
+        double seconds = Math.max(session.lastReply - session.firstSend, 1) / 1e9;
+        System.out.println(String.format(Locale.ROOT, "%s: %d commands in %.2f s (%.1f/s)",
+                name, session.commands, seconds, session.commands / seconds));
+        List<String> seen = new ArrayList<String>();
+        for (String code : session.codes) {
+            if (seen.contains(code)) continue;
+            seen.add(code);
+            long total = 0;
+            int count = 0;
+            for (int i = 0; i < session.codes.size(); i++) {
+                if (!session.codes.get(i).equals(code)) continue;
+                total += session.roundTrips.get(i);
+                count++;
+            }
+            System.out.println(String.format(Locale.ROOT, "  %-4s n=%-6d mean round trip %.2f ms",
+                    code, count, total / 1e6 / count));
+        }
+    }
+
+    private static String describe(Exchange exchange) {
+        StringBuilder sb = new StringBuilder("send ").append(text(exchange.command)).append(" reply");
+        if (exchange.replies.isEmpty()) sb.append(" (none)");
+        for (byte[] reply : exchange.replies) {
+            sb.append(' ').append(text(reply));
+        }
+        return sb.toString();
+    }
+
+    private static String text(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            return Arrays.toString(bytes);
+        }
+    }
+}
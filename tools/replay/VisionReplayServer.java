@@ -0,0 +1,262 @@
+import biemhTekniker.vision.VisionCapture;
+import biemhTekniker.vision.VisionCaptureReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a recorded vision session ({@code vision.capture.enabled}) back to
+ * the client stack, so a production session can be re-run offline against
+ * new protocol and parser code.
+ * <pre>
+ *   javac -sourcepath ../../src -d out VisionReplayServer.java VisionCaptureDiff.java
+ *   java -cp out VisionReplayServer capture.bvc [port] [--fast]
+ * </pre>
+ * Each recorded command is answered with the replies recorded after it. By
+ * default a reply is held back for as long as the camera took originally;
+ * {@code --fast} answers at once. A command that got no reply gets none
+ * again, and a session the server dropped is dropped again; the client then
+ * reconnects and the replay continues. The server exits after the last
+ * recorded command.
+ * <p>
+ * The replay follows the command bytes rather than their position, because
+ * keepalive probes depend on idle time and rarely line up with the recording:
+ * <ul>
+ * <li>recorded commands the client does not send are skipped when they are
+ * repeats of one command, as the probes of an idle period are, and the
+ * client's command follows within a few exchanges;</li>
+ * <li>a command the recording does not have at this point, such as an extra
+ * probe, is answered like the nearest recorded command with the same bytes,
+ * without moving on;</li>
+ * <li>a command recorded nowhere is counted as a mismatch and answered with
+ * the replies at the current position, so the session carries on.</li>
+ * </ul>
+ * <p>
+ * Enable the capture on the replaying client too and compare both files with
+ * {@link VisionCaptureDiff}.
+ */
+public class VisionReplayServer {
+
+    // Reason VisionSocketClient records when the server closed the connection
+    private static final String REMOTE_CLOSE = "closed by remote host";
+    private static final int MAX_REPORTED_MISMATCHES = 10;
+    // How far ahead a command is looked for before it counts as an extra one
+    private static final int RESYNC_WINDOW = 8;
+
+    private static final class Exchange {
+        byte[] command;
+        long sentNanos;
+        final List<byte[]> replies = new ArrayList<byte[]>();
+        final List<Long> replyNanos = new ArrayList<Long>();
+        boolean serverClosed;
+    }
+
+    private final List<Exchange> _exchanges;
+    private final boolean _fast;
+    private int _next = 0;
+    private int _answered = 0;
+    private int _skipped = 0;
+    private int _extra = 0;
+    private int _mismatches = 0;
+    // Whether the last matched exchange moved the replay forward
+    private boolean _advanced;
+    private long _recordedNanos;
+
+    VisionReplayServer(List<Exchange> exchanges, boolean fast) {
+        this._exchanges = exchanges;
+        this._fast = fast;
+        if (!exchanges.isEmpty()) {
+            Exchange last = exchanges.get(exchanges.size() - 1);
+            long end = last.replyNanos.isEmpty() ? last.sentNanos : last.replyNanos.get(last.replyNanos.size() - 1);
+            _recordedNanos = end - exchanges.get(0).sentNanos;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: VisionReplayServer capture.bvc [port] [--fast]");
+            System.exit(2);
+        }
+        int port = 59002;
+        boolean fast = false;
+        for (int i = 1; i < args.length; i++) {
+            if ("--fast".equals(args[i])) {
+                fast = true;
+            } else {
+                port = Integer.parseInt(args[i]);
+            }
+        }
+        VisionCaptureReader reader = VisionCaptureReader.open(new File(args[0]));
+        List<Exchange> exchanges = load(reader);
+        System.out.println("Replaying " + exchanges.size() + " commands recorded from " + reader.getPeer()
+                + (fast ? " as fast as possible" : " at original timing") + " on port " + port);
+        new VisionReplayServer(exchanges, fast).serve(port);
+    }
+
+    static List<Exchange> load(VisionCaptureReader reader) throws IOException {
+        List<Exchange> exchanges = new ArrayList<Exchange>();
+        Exchange current = null;
+        while (reader.next()) {
+            switch (reader.getType()) {
+                case VisionCapture.RECORD_SEND:
+                    current = new Exchange();
+                    current.command = reader.getPayloadBytes();
+                    current.sentNanos = reader.getNanos();
+                    exchanges.add(current);
+                    break;
+                case VisionCapture.RECORD_REPLY:
+                    // Replies before the first command have nothing to answer
+                    if (current != null) {
+                        current.replies.add(reader.getPayloadBytes());
+                        current.replyNanos.add(reader.getNanos());
+                    }
+                    break;
+                case VisionCapture.RECORD_DISCONNECT:
+                    if (current != null && REMOTE_CLOSE.equals(reader.getPayloadText())) {
+                        current.serverClosed = true;
+                    }
+                    current = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return exchanges;
+    }
+
+    public void serve(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port);
+        long start = 0;
+        try {
+            while (_next < _exchanges.size()) {
+                Socket socket = server.accept();
+                if (start == 0) start = System.nanoTime();
+                session(socket);
+            }
+        } finally {
+            server.close();
+        }
+        report(System.nanoTime() - start);
+    }
+
+    private void session(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            // The client sends one bare command per request and waits for the reply
+            while (_next < _exchanges.size() && (n = in.read(buffer)) > 0) {
+                long received = System.nanoTime();
+                Exchange exchange = match(Arrays.copyOf(buffer, n));
+                _answered++;
+                for (int i = 0; i < exchange.replies.size(); i++) {
+                    if (!_fast) {
+                        long due = received + exchange.replyNanos.get(i) - exchange.sentNanos;
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) sleepNanos(wait);
+                    }
+                    out.write(exchange.replies.get(i));
+                }
+                out.flush();
+                if (exchange.serverClosed && _advanced) return;
+            }
+        } catch (SocketException ignored) {
+            // Client went away
+        } catch (IOException e) {
+            System.out.println("Session error: " + e.getMessage());
+        } finally {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Picks the recorded exchange that answers {@code command} and moves the
+     * replay past it where the recording and the client agree.
+     */
+    private Exchange match(byte[] command) {
+        Exchange expected = _exchanges.get(_next);
+        _advanced = true;
+        if (Arrays.equals(expected.command, command)) {
+            _next++;
+            return expected;
+        }
+        int limit = Math.min(_exchanges.size(), _next + RESYNC_WINDOW);
+        for (int i = _next + 1; i < limit; i++) {
+            // Only a run of one command is skipped, and never a recorded disconnect
+            Exchange skipped = _exchanges.get(i - 1);
+            if (skipped.serverClosed || !Arrays.equals(skipped.command, expected.command)) break;
+            if (Arrays.equals(_exchanges.get(i).command, command)) {
+                _skipped += i - _next;
+                _next = i + 1;
+                return _exchanges.get(i);
+            }
+        }
+        Exchange same = nearest(command);
+        if (same != null) {
+            _extra++;
+            _advanced = false;
+            return same;
+        }
+        if (_mismatches++ < MAX_REPORTED_MISMATCHES) {
+            System.out.println("Command " + (_next + 1) + ": expected '" + text(expected.command)
+                    + "', got '" + text(command) + "'");
+        }
+        _next++;
+        return expected;
+    }
+
+    // The recorded exchange with the same command closest to the current position
+    private Exchange nearest(byte[] command) {
+        for (int d = 0; _next - 1 - d >= 0 || _next + d < _exchanges.size(); d++) {
+            int before = _next - 1 - d;
+            if (before >= 0 && Arrays.equals(_exchanges.get(before).command, command)) {
+                return _exchanges.get(before);
+            }
+            int after = _next + d;
+            if (after < _exchanges.size() && Arrays.equals(_exchanges.get(after).command, command)) {
+                return _exchanges.get(after);
+            }
+        }
+        return null;
+    }
+
+    private void report(long elapsedNanos) {
+        double elapsed = elapsedNanos / 1e9;
+        double recorded = _recordedNanos / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "Answered %d commands in %.2f s (%.1f/s), recorded %d in %.2f s (%.1f/s)",
+                _answered, elapsed, _answered / Math.max(elapsed, 1e-9), _exchanges.size(), recorded,
+                _exchanges.size() / Math.max(recorded, 1e-9)));
+        System.out.println(String.format(Locale.ROOT,
+                "%d recorded commands skipped, %d extra commands answered, %d mismatched commands",
+                _skipped, _extra, _mismatches));
+    }
+
+    private static String text(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            return Arrays.toString(bytes);
+        }
+    }
+
+    private static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
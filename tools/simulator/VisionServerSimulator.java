@@ -0,0 +1,295 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-alone stand-in for the SmartPicking vision server, for running the
+ * client stack and load tests without the camera. Not part of the robot
+ * application; plain Java 7, no dependencies:
+ * <pre>
+ *   javac -d out VisionServerSimulator.java
+ *   java -cp out VisionServerSimulator [port] [simulator.properties]
+ * </pre>
+ * Then point {@code vision.ip}/{@code vision.port} at this machine.
+ * <p>
+ * Supported commands: 15 (load reference), 19 (reset), 101/102 (modes),
+ * 2 (capture), 3 (locate container), 4 (locate parts), 8 (container pose),
+ * 9 (first part pose), 11 (next part pose). Replies use the {@code (0,...)}
+ * format; 9 and 11 answer {@code (1)} when no more parts are left.
+ * <p>
+ * Properties (all optional):
+ * <pre>
+ *   latency.&lt;code&gt;          fixed:MS | uniform:MIN:MAX | normal:MEAN:SD | lognormal:MEDIAN:SIGMA
+ *   latency.default          distribution for commands without their own entry
+ *   parts.min, parts.max     parts found per LOCATE_PARTS
+ *   fail.probability         chance that a command answers with status 2
+ *   fragment.probability     chance that a reply is written in several TCP segments
+ *   disconnect.probability   chance that the server drops the connection instead of replying
+ *   silent.probability       chance that the server never answers (half-open peer)
+ *   stats.intervalSec        console statistics interval, 0 = off
+ *   seed                     random seed for reproducible runs
+ * </pre>
+ */
+public class VisionServerSimulator {
+
+    private static final String[] COMMANDS = {"15", "19", "101", "102", "2", "3", "4", "8", "9", "11"};
+
+    private final Properties _config;
+    private final Latency _defaultLatency;
+    private final Latency[] _latencies = new Latency[COMMANDS.length];
+    private final int _partsMin;
+    private final int _partsMax;
+    private final double _failProbability;
+    private final double _fragmentProbability;
+    private final double _disconnectProbability;
+    private final double _silentProbability;
+    private final long _seed;
+
+    private final AtomicInteger _clients = new AtomicInteger(0);
+    private final AtomicLong _commands = new AtomicLong(0);
+    private final AtomicLong _disconnects = new AtomicLong(0);
+
+    public VisionServerSimulator(Properties config) {
+        this._config = config;
+        this._defaultLatency = Latency.parse(config.getProperty("latency.default", "fixed:5"));
+        for (int i = 0; i < COMMANDS.length; i++) {
+            String spec = config.getProperty("latency." + COMMANDS[i]);
+            _latencies[i] = (spec != null) ? Latency.parse(spec) : _defaultLatency;
+        }
+        _partsMin = Integer.parseInt(config.getProperty("parts.min", "0"));
+        _partsMax = Integer.parseInt(config.getProperty("parts.max", "6"));
+        _failProbability = Double.parseDouble(config.getProperty("fail.probability", "0"));
+        _fragmentProbability = Double.parseDouble(config.getProperty("fragment.probability", "0.2"));
+        _disconnectProbability = Double.parseDouble(config.getProperty("disconnect.probability", "0"));
+        _silentProbability = Double.parseDouble(config.getProperty("silent.probability", "0"));
+        _seed = Long.parseLong(config.getProperty("seed", String.valueOf(System.nanoTime())));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 59002;
+        Properties config = new Properties();
+        if (args.length > 1) {
+            InputStream in = new FileInputStream(args[1]);
+            try {
+                config.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        new VisionServerSimulator(config).serve(port);
+    }
+
+    public void serve(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port);
+        ExecutorService pool = Executors.newCachedThreadPool();
+        startStats(Integer.parseInt(_config.getProperty("stats.intervalSec", "10")));
+        System.out.println("Vision simulator listening on port " + port + ", seed " + _seed);
+
+        int sessionId = 0;
+        while (true) {
+            final Socket socket = server.accept();
+            final Random random = new Random(_seed + sessionId++);
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    session(socket, random);
+                }
+            });
+        }
+    }
+
+    private void session(Socket socket, Random random) {
+        _clients.incrementAndGet();
+        Session state = new Session();
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            // The client sends one bare command per request and waits for the reply
+            while ((n = in.read(buffer)) > 0) {
+                String request = new String(buffer, 0, n, "US-ASCII").trim();
+                _commands.incrementAndGet();
+
+                String code = request;
+                String arg = null;
+                int semicolon = request.indexOf(';');
+                if (semicolon >= 0) {
+                    code = request.substring(0, semicolon);
+                    arg = request.substring(semicolon + 1);
+                }
+
+                sleep(latencyOf(code).sample(random));
+                if (random.nextDouble() < _disconnectProbability) {
+                    _disconnects.incrementAndGet();
+                    return;
+                }
+                if (random.nextDouble() < _silentProbability) {
+                    continue;
+                }
+                String reply = (random.nextDouble() < _failProbability) ? "(2)" : reply(code, arg, state, random);
+                write(out, reply.getBytes("US-ASCII"), random);
+            }
+        } catch (SocketException ignored) {
+            // Client went away
+        } catch (IOException e) {
+            System.out.println("Session error: " + e.getMessage());
+        } finally {
+            _clients.decrementAndGet();
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private String reply(String code, String arg, Session state, Random random) {
+        if ("15".equals(code)) {
+            state.reference = arg;
+            return "(0)";
+        }
+        if ("19".equals(code) || "101".equals(code) || "102".equals(code) || "2".equals(code) || "3".equals(code)) {
+            return "(0)";
+        }
+        if ("4".equals(code)) {
+            state.parts = _partsMin + random.nextInt(Math.max(1, _partsMax - _partsMin + 1));
+            state.nextPart = 0;
+            return "(0," + state.parts + ")";
+        }
+        if ("8".equals(code)) {
+            // Container pose: fields 5..10, score at 11
+            return String.format(Locale.ROOT, "(0,1,0,0,0,%s,%.4f)", pose(random, 1.0), 0.9 + random.nextDouble() * 0.1);
+        }
+        if ("9".equals(code)) {
+            state.nextPart = 0;
+            return partReply(state, random);
+        }
+        if ("11".equals(code)) {
+            return partReply(state, random);
+        }
+        return "(99)";
+    }
+
+    // Part pose: fields 2..7, score at 11
+    private String partReply(Session state, Random random) {
+        if (state.nextPart >= state.parts) return "(1)";
+        state.nextPart++;
+        return String.format(Locale.ROOT, "(0,%d,%s,0,0,0,%.4f)",
+                state.nextPart, pose(random, 0.001), 0.5 + random.nextDouble() * 0.5);
+    }
+
+    private static String pose(Random random, double scale) {
+        return String.format(Locale.ROOT, "%.4f,%.4f,%.4f,%.4f,%.4f,%.4f",
+                (random.nextDouble() * 400 - 200) * scale, (random.nextDouble() * 300 - 150) * scale,
+                (random.nextDouble() * 100 + 50) * scale,
+                random.nextDouble() * 2 * Math.PI - Math.PI, random.nextDouble() * 0.2 - 0.1,
+                random.nextDouble() * 0.2 - 0.1);
+    }
+
+    private void write(OutputStream out, byte[] reply, Random random) throws IOException {
+        if (reply.length < 2 || random.nextDouble() >= _fragmentProbability) {
+            out.write(reply);
+            out.flush();
+            return;
+        }
+        int offset = 0;
+        while (offset < reply.length) {
+            int chunk = 1 + random.nextInt(Math.max(1, (reply.length - offset) / 2 + 1));
+            chunk = Math.min(chunk, reply.length - offset);
+            out.write(reply, offset, chunk);
+            out.flush();
+            offset += chunk;
+            sleep(random.nextInt(3));
+        }
+    }
+
+    private Latency latencyOf(String code) {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (COMMANDS[i].equals(code)) return _latencies[i];
+        }
+        return _defaultLatency;
+    }
+
+    private void startStats(final int intervalSec) {
+        if (intervalSec <= 0) return;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long last = 0;
+                while (true) {
+                    sleep(intervalSec * 1000L);
+                    long commands = _commands.get();
+                    System.out.println(String.format(Locale.ROOT, "clients=%d commands/s=%.1f disconnects=%d",
+                            _clients.get(), (commands - last) / (double) intervalSec, _disconnects.get()));
+                    last = commands;
+                }
+            }
+        }, "Simulator-Stats");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Session {
+        String reference;
+        int parts;
+        int nextPart;
+    }
+
+    /**
+     * Latency distribution in milliseconds.
+     */
+    private static final class Latency {
+        private final String _kind;
+        private final double _a;
+        private final double _b;
+
+        private Latency(String kind, double a, double b) {
+            this._kind = kind;
+            this._a = a;
+            this._b = b;
+        }
+
+        static Latency parse(String spec) {
+            String[] parts = spec.trim().split(":");
+            double a = (parts.length > 1) ? Double.parseDouble(parts[1]) : 0;
+            double b = (parts.length > 2) ? Double.parseDouble(parts[2]) : 0;
+            String kind = parts[0].toLowerCase(Locale.ROOT);
+            if (!kind.equals("fixed") && !kind.equals("uniform") && !kind.equals("normal") && !kind.equals("lognormal")) {
+                throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+            }
+            return new Latency(kind, a, b);
+        }
+
+        long sample(Random random) {
+            double value;
+            if (_kind.equals("uniform")) {
+                value = _a + random.nextDouble() * (_b - _a);
+            } else if (_kind.equals("normal")) {
+                value = _a + random.nextGaussian() * _b;
+            } else if (_kind.equals("lognormal")) {
+                value = _a * Math.exp(random.nextGaussian() * _b);
+            } else {
+                value = _a;
+            }
+            return Math.max(0, Math.round(value));
+        }
+    }
+}